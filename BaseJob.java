@@ -1,5 +1,18 @@
+import edu.rit.ds.registry.NotBoundException;
+import edu.rit.ds.registry.RegistryProxy;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.UUID;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.MarshalException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.UnknownHostException;
+import java.rmi.UnmarshalException;
 /**
  * Abstract class BaseJob is meant to be a base for the two job types
  * It comes with a set of mutators and accessors for common variables
@@ -12,7 +25,19 @@ public abstract class BaseJob implements Serializable{
     // Hidden data members
     private String type = null;
     private String name = null;
-    private UUID id = null;
+    private long id = 0;
+    private long deadline = 0;
+    private volatile boolean cancelled = false;
+    private long queueWait = 0;
+    private long computeTime = 0;
+    private RuntimeException failure = null;
+    private TraceContext trace = null;
+    private long checkpointInterval = 0;
+    private volatile Checkpoint checkpoint = null;
+    private transient JobSchedulerInterface checkpointTarget = null;
+    private transient long lastCheckpoint = 0;
+    private static final int FAILOVER_ATTEMPTS = 20;
+    private static final long FAILOVER_WAIT = 250;
     
     /**
      * Empty constructor
@@ -62,9 +87,9 @@ public abstract class BaseJob implements Serializable{
     /**
      * Mutator for id
      * 
-     * @param id unique identifier for this job
+     * @param id unique identifier for this job, issued by the JobScheduler
      */
-    public void setID(UUID id) {
+    public void setID(long id) {
         
         this.id = id;
     }
@@ -72,15 +97,503 @@ public abstract class BaseJob implements Serializable{
     /**
      * Accessor for id
      * 
-     * @return the unique id of the job
+     * @return the unique id of the job, or 0 if it has none yet
      */
-    public UUID getID() {
+    public long getID() {
         
         return id;
     }
     
+    /**
+     * Mutator for deadline
+     * 
+     * @param deadline time in milliseconds since the epoch after which the
+     *                 job is no longer wanted, or 0 for no deadline
+     */
+    public void setDeadline(long deadline) {
+        
+        this.deadline = deadline;
+    }
+    
+    /**
+     * Accessor for deadline
+     * 
+     * @return the deadline in milliseconds since the epoch, or 0 if none
+     */
+    public long getDeadline() {
+        
+        return deadline;
+    }
+    
+    /**
+     * Determines if the deadline of the job has passed
+     * 
+     * @return true if the job has a deadline and it has passed
+     */
+    public boolean isExpired() {
+        
+        return deadline != 0 && System.currentTimeMillis() > deadline;
+    }
+    
+    /**
+     * Mutator for cancelled, set when the job is dropped or interrupted
+     * before it could finish
+     * 
+     * @param cancelled true if the job did not run to completion
+     */
+    public void setCancelled(boolean cancelled) {
+        
+        this.cancelled = cancelled;
+    }
+    
+    /**
+     * Accessor for cancelled
+     * 
+     * @return true if the job was cancelled and has no result
+     */
+    public boolean isCancelled() {
+        
+        return cancelled;
+    }
+    
+    /**
+     * Mutator for queue wait, set by the JobScheduler when the job leaves
+     * the queue
+     * 
+     * @param queueWait total nanoseconds the job has spent queued, over
+     *                  every time it was scheduled
+     */
+    public void setQueueWait(long queueWait) {
+        
+        this.queueWait = queueWait;
+    }
+    
+    /**
+     * Accessor for queue wait
+     * 
+     * @return total nanoseconds the job spent in the JobScheduler queue
+     */
+    public long getQueueWait() {
+        
+        return queueWait;
+    }
+    
+    /**
+     * Mutator for compute time, set by the ComputeServer that ran the job
+     * 
+     * @param computeTime nanoseconds the last run of computeJob took
+     */
+    public void setComputeTime(long computeTime) {
+        
+        this.computeTime = computeTime;
+    }
+    
+    /**
+     * Accessor for compute time
+     * 
+     * @return nanoseconds the last run of computeJob took on its server
+     */
+    public long getComputeTime() {
+        
+        return computeTime;
+    }
+    
+    /**
+     * Mutator for failure, set by a ComputeServer running the job in a batch
+     * so that one failing job does not fail the others
+     * 
+     * @param failure the RuntimeException thrown by computeJob, or null if
+     *                it returned normally
+     */
+    public void setFailure(RuntimeException failure) {
+        
+        this.failure = failure;
+    }
+    
+    /**
+     * Accessor for failure
+     * 
+     * @return what computeJob threw when run in a batch, or null
+     */
+    public RuntimeException getFailure() {
+        
+        return failure;
+    }
+    
+    /**
+     * Mutator for trace, set by the JobScheduler on the jobs it samples or
+     * by a client that wants a job traced
+     * 
+     * @param trace the TraceContext to stamp, or null for no tracing
+     */
+    public void setTrace(TraceContext trace) {
+        
+        this.trace = trace;
+    }
+    
+    /**
+     * Accessor for trace
+     * 
+     * @return the TraceContext of the job, or null if it is not traced
+     */
+    public TraceContext getTrace() {
+        
+        return trace;
+    }
+    
+    /**
+     * Mutator for checkpoint interval, which trades the cost of saving
+     * progress against the work lost when a ComputeServer fails
+     * 
+     * @param checkpointInterval milliseconds between checkpoints of a
+     *                           Checkpointable job, or 0 for none
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        
+        if(checkpointInterval < 0) {
+            
+            throw new IllegalArgumentException("BaseJob: Invalid checkpoint "
+                    + "interval: " + checkpointInterval);
+        }
+        
+        this.checkpointInterval = checkpointInterval;
+    }
+    
+    /**
+     * Accessor for checkpoint interval
+     * 
+     * @return milliseconds between checkpoints, or 0 for none
+     */
+    public long getCheckpointInterval() {
+        
+        return checkpointInterval;
+    }
+    
+    /**
+     * Mutator for checkpoint, set by the JobScheduler on the last progress
+     * the job reported so that a resent job carries on from it
+     * 
+     * @param checkpoint the last Checkpoint of the job, or null
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        
+        this.checkpoint = checkpoint;
+    }
+    
+    /**
+     * Accessor for checkpoint
+     * 
+     * @return the Checkpoint the job carries on from, or null to start over
+     */
+    public Checkpoint getCheckpoint() {
+        
+        return checkpoint;
+    }
+    
+    /**
+     * Mutator for the JobScheduler checkpoints are sent to, set by the
+     * ComputeServer for the length of a run
+     * 
+     * @param checkpointTarget the JobScheduler, or null once the run is over
+     */
+    void setCheckpointTarget(JobSchedulerInterface checkpointTarget) {
+        
+        this.checkpointTarget = checkpointTarget;
+        this.lastCheckpoint = System.currentTimeMillis();
+    }
+    
+    /**
+     * Saves the progress of a Checkpointable job if a checkpoint interval has
+     * passed since the last one, to be called often from computeJob
+     * 
+     * Does nothing for jobs that are not Checkpointable or not running on a
+     * ComputeServer.  A checkpoint that cannot be sent is skipped, the job
+     * itself carries on.
+     */
+    protected void checkpoint() {
+        
+        if(checkpointTarget == null || checkpointInterval == 0
+                || !(this instanceof Checkpointable)) {
+            
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        if(now - lastCheckpoint < checkpointInterval) {
+            
+            return;
+        }
+        lastCheckpoint = now;
+        
+        //Results counted in the checkpoint must have reached the client
+        long results = flushResults();
+        try {
+            checkpointTarget.reportCheckpoint(new Checkpoint(id, 
+                    ((Checkpointable) this).saveCheckpoint(), results));
+        } catch (RemoteException e) { } // Lost, the next one may get through
+    }
+    
+    /**
+     * Determines whether the job can be queued in the compact encoding,
+     * which leaves out the state a job only picks up once it has run
+     * 
+     * @return true if the job carries no failure, trace or checkpoint
+     */
+    boolean isCompact() {
+        
+        return failure == null && trace == null && checkpoint == null;
+    }
+    
+    /**
+     * Writes the fields of the job for the compact encoding of JobQueue,
+     * overridden by job types that have one to add their own fields
+     * 
+     * @param out where the fields are written
+     * @throws IOException thrown if the fields cannot be written
+     */
+    void writeCompact(DataOutput out) throws IOException {
+        
+        writeString(out, type);
+        writeString(out, name);
+        out.writeLong(id);
+        out.writeLong(deadline);
+        out.writeBoolean(cancelled);
+        out.writeLong(queueWait);
+        out.writeLong(computeTime);
+        out.writeLong(checkpointInterval);
+    }
+    
+    /**
+     * Reads the fields written by writeCompact
+     * 
+     * @param in where the fields are read from
+     * @throws IOException thrown if the fields cannot be read
+     */
+    void readCompact(DataInput in) throws IOException {
+        
+        type = readString(in);
+        name = readString(in);
+        id = in.readLong();
+        deadline = in.readLong();
+        cancelled = in.readBoolean();
+        queueWait = in.readLong();
+        computeTime = in.readLong();
+        checkpointInterval = in.readLong();
+    }
+    
+    /**
+     * Writes a string that may be null for the compact encoding
+     * 
+     * @param out where the string is written
+     * @param text the string, or null
+     * @throws IOException thrown if the string cannot be written
+     */
+    static void writeString(DataOutput out, String text) throws IOException {
+        
+        writeBytes(out, text == null ? 
+                null : text.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Reads a string written by writeString
+     * 
+     * @param in where the string is read from
+     * @return the string, or null
+     * @throws IOException thrown if the string cannot be read
+     */
+    static String readString(DataInput in) throws IOException {
+        
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Writes a BigInteger that may be null for the compact encoding
+     * 
+     * @param out where the number is written
+     * @param number the number, or null
+     * @throws IOException thrown if the number cannot be written
+     */
+    static void writeBigInteger(DataOutput out, BigInteger number) 
+            throws IOException {
+        
+        writeBytes(out, number == null ? null : number.toByteArray());
+    }
+    
+    /**
+     * Reads a BigInteger written by writeBigInteger
+     * 
+     * @param in where the number is read from
+     * @return the number, or null
+     * @throws IOException thrown if the number cannot be read
+     */
+    static BigInteger readBigInteger(DataInput in) throws IOException {
+        
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new BigInteger(bytes);
+    }
+    
+    /**
+     * Writes bytes that may be null, after their length, or -1 for null, so
+     * any length an array can have fits
+     * 
+     * @param out where the bytes are written
+     * @param bytes the bytes, or null
+     * @throws IOException thrown if the bytes cannot be written
+     */
+    private static void writeBytes(DataOutput out, byte[] bytes) 
+            throws IOException {
+        
+        if(bytes == null) {
+            
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    /**
+     * Reads bytes written by writeBytes
+     * 
+     * @param in where the bytes are read from
+     * @return the bytes, or null
+     * @throws IOException thrown if the bytes cannot be read
+     */
+    private static byte[] readBytes(DataInput in) throws IOException {
+        
+        int length = in.readInt();
+        if(length < 0) {
+            
+            return null;
+        }
+        
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+    
+    /**
+     * Waits for the results emitted so far in this run to be delivered, so a
+     * checkpoint taken next covers them
+     * 
+     * @return 0, as only a StreamingJob emits results
+     */
+    long flushResults() {
+        
+        return 0;
+    }
+    
+    /**
+     * Sends a job to the JobScheduler bound under a name and waits for it,
+     * looking the name up again and resending the job if the JobScheduler
+     * fails, so that a standby taking over the name picks the job up
+     * 
+     * The job keeps its ID when it is resent, which lets the new
+     * JobScheduler give it back its place in the queue, and lets a
+     * JobScheduler that is still running it hand back the run in progress
+     * instead of running it twice.  The job is only resent when the
+     * JobScheduler cannot be looked up or reached; an error the JobScheduler
+     * itself reports is passed on as is.
+     * 
+     * @param proxyBot the registry the JobScheduler is bound in
+     * @param jsName the name the JobScheduler is bound under
+     * @param job the job to run, with its ID set
+     * @return the job after completion
+     * @throws RemoteException thrown if no JobScheduler could run the job
+     * @throws NotBoundException thrown if the JobScheduler stays unbound
+     */
+    protected static BaseJob submit(RegistryProxy proxyBot, String jsName, 
+            BaseJob job) throws RemoteException, NotBoundException {
+        
+        for(int attempt = 1; ; attempt++) {
+            
+            JobSchedulerInterface jobSched = null;
+            try {
+                jobSched = (JobSchedulerInterface) proxyBot.lookup(jsName);
+            } catch (RemoteException e) {
+                if(attempt == FAILOVER_ATTEMPTS) {
+                    
+                    throw e;
+                }
+            } catch (NotBoundException e) {
+                if(attempt == FAILOVER_ATTEMPTS) {
+                    
+                    throw e;
+                }
+            }
+            
+            if(jobSched != null) {
+                
+                try {
+                    return jobSched.doJob(job, attempt > 1);
+                } catch (RemoteException e) {
+                    if(!lostConnection(e) || attempt == FAILOVER_ATTEMPTS) {
+                        
+                        throw e;
+                    }
+                } catch (NotBoundException e) {
+                    if(attempt == FAILOVER_ATTEMPTS) {
+                        
+                        throw e; // Stopped after another took over
+                    }
+                }
+            }
+            
+            //Give a standby time to take over
+            try {
+                Thread.sleep(FAILOVER_WAIT);
+            } catch (InterruptedException ex) { }
+        }
+    }
+    
+    /**
+     * Determines whether a call failed because the JobScheduler could not be
+     * reached, or went away while the call was in progress
+     * 
+     * @param e the exception the call threw
+     * @return true if the call is worth making again, to the same or another
+     *         JobScheduler
+     */
+    private static boolean lostConnection(RemoteException e) {
+        
+        return e instanceof ConnectException 
+                || e instanceof ConnectIOException
+                || e instanceof NoSuchObjectException
+                || e instanceof UnknownHostException
+                || e instanceof MarshalException
+                || e instanceof UnmarshalException;
+    }
+    
+    /**
+     * Builds a shutdown hook that cancels a job on the JobScheduler, so that
+     * a client stopped while waiting on doJob does not leave its job queued
+     * or running
+     * 
+     * @param jobSched the JobScheduler the job was sent to
+     * @param jobID the unique id the job was sent with
+     * @return a Thread to pass to Runtime.addShutdownHook
+     */
+    protected static Thread cancelOnExit(final JobSchedulerInterface jobSched,
+            final long jobID) {
+        
+        return new Thread() {
+            
+            @Override
+            public void run() {
+                
+                try {
+                    jobSched.cancel(jobID);
+                } catch (RemoteException e) { } // Scheduler already gone
+            }
+        };
+    }
+    
     /**
      * The job computation is implemented separately for prime and GCD
+     * 
+     * Cancelling a job interrupts the thread running it, so a computation
+     * should return early once the thread is interrupted
      */
     public abstract void computeJob();
 }
@@ -0,0 +1,126 @@
+import java.util.HashMap;
+
+/**
+ * Class Batcher decides how many queued jobs of one type the JobScheduler
+ * sends to a ComputeServer in a single call
+ * 
+ * For every job type it keeps a moving average of how long one job takes to
+ * compute and of how long a call costs on top of that.  Only jobs that
+ * compute in under SMALL_JOB nanoseconds, and whose call costs more than the
+ * job itself, are batched.  A batch is sized so the call is paid for by
+ * about TARGET_BATCH nanoseconds of work, but never holds more jobs than are
+ * waiting.  When fewer are waiting the first job may linger a little for
+ * more to arrive.
+ * 
+ * Types that have not run yet, and long jobs, are always sent one at a time.
+ * 
+ * All functions are synchronized on the Batcher.
+ * 
+ * @author Matt Au
+ */
+public class Batcher {
+    
+    // Hidden data members
+    private static final long SMALL_JOB = 1000000;
+    private static final long TARGET_BATCH = 2000000;
+    private static final long MAX_LINGER = 1000000;
+    private static final int MAX_BATCH = 256;
+    private static final double WEIGHT = 0.2;
+    
+    private HashMap<String, Cost> costs = new HashMap<String, Cost>();
+    
+    /**
+     * Works out how many jobs of a type to send in one call
+     * 
+     * @param type the job type
+     * @param waiting the number of other jobs waiting in the queue
+     * @return the number of jobs to send, 1 for no batching
+     */
+    public synchronized int batchSize(String type, int waiting) {
+        
+        return (int) Math.max(1, Math.min(wanted(type), waiting + 1L));
+    }
+    
+    /**
+     * Works out how long the first job of a batch waits for more jobs of its
+     * type before it is sent
+     * 
+     * @param type the job type
+     * @param waiting the number of other jobs waiting in the queue
+     * @return nanoseconds to wait, 0 to send right away
+     */
+    public synchronized long linger(String type, int waiting) {
+        
+        //Nothing else is arriving, or there is enough already
+        if(waiting == 0 || wanted(type) <= waiting + 1L) {
+            
+            return 0;
+        }
+        return Math.min(MAX_LINGER, (long) costs.get(type).overhead / 2);
+    }
+    
+    /**
+     * Records how a call to a ComputeServer went
+     * 
+     * @param type the job type
+     * @param jobs the number of jobs sent in the call
+     * @param elapsed nanoseconds the call took
+     * @param compute nanoseconds the jobs took to compute, all together
+     */
+    public synchronized void record(String type, int jobs, long elapsed,
+            long compute) {
+        
+        double cost = (double) compute / jobs;
+        double overhead = Math.max(0, elapsed - compute);
+        
+        Cost average = costs.get(type);
+        if(average == null) {
+            
+            costs.put(type, new Cost(cost, overhead));
+            return;
+        }
+        average.cost += WEIGHT * (cost - average.cost);
+        average.overhead += WEIGHT * (overhead - average.overhead);
+    }
+    
+    /**
+     * Works out the best batch size for a type regardless of how many jobs
+     * are waiting
+     * 
+     * @param type the job type
+     * @return the number of jobs that would make a good batch, at least 1
+     */
+    private long wanted(String type) {
+        
+        Cost average = costs.get(type);
+        if(average == null || average.cost > SMALL_JOB
+                || average.overhead <= average.cost) {
+            
+            return 1;
+        }
+        
+        long size = (long) (TARGET_BATCH / Math.max(average.cost, 1));
+        return Math.max(1, Math.min(MAX_BATCH, size));
+    }
+    
+    /**
+     * Class Cost holds the moving averages for one job type
+     */
+    private static class Cost {
+        
+        double cost;
+        double overhead;
+        
+        /**
+         * Constructor taking the first measurements
+         * 
+         * @param cost nanoseconds one job took to compute
+         * @param overhead nanoseconds the call took on top of computing
+         */
+        Cost(double cost, double overhead) {
+            
+            this.cost = cost;
+            this.overhead = overhead;
+        }
+    }
+}
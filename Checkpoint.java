@@ -0,0 +1,33 @@
+import java.io.Serializable;
+
+/**
+ * Class Checkpoint carries the saved progress of a Checkpointable job from
+ * the ComputeServer running it to the JobScheduler
+ * 
+ * Along with the state of the job it holds how many results the job had
+ * emitted when the state was saved, so a StreamingJob carrying on from it
+ * numbers its results from there and the JobScheduler can drop the ones the
+ * client already has.
+ *
+ * @author Matt Au
+ */
+public class Checkpoint implements Serializable {
+    
+    public final long jobID;
+    public final Serializable state;
+    public final long results;
+    
+    /**
+     * Constructor taking the job and its saved progress
+     * 
+     * @param jobID the unique id of the job
+     * @param state the state returned by saveCheckpoint
+     * @param results the number of results the job had emitted
+     */
+    public Checkpoint(long jobID, Serializable state, long results) {
+        
+        this.jobID = jobID;
+        this.state = state;
+        this.results = results;
+    }
+}
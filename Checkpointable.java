@@ -0,0 +1,30 @@
+import java.io.Serializable;
+
+/**
+ * Interface for jobs that can save their progress and carry on from it
+ * 
+ * A Checkpointable job calls checkpoint on BaseJob at points in its
+ * computation where its progress can be captured.  Every checkpoint
+ * interval the ComputeServer asks it for its state there and sends the
+ * state to the JobScheduler.  If the server fails, the job is resent with
+ * the last state, which is handed back to it before it is run again.
+ * 
+ * @author Matt Au
+ */
+public interface Checkpointable {
+    
+    /**
+     * Captures the progress of the job
+     * 
+     * @return a compact state the job can carry on from
+     */
+    Serializable saveCheckpoint();
+    
+    /**
+     * Puts the job back where a saved state left it, called before the job
+     * is run again
+     * 
+     * @param state a state returned by saveCheckpoint
+     */
+    void restoreCheckpoint(Serializable state);
+}
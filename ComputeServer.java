@@ -1,39 +1,379 @@
 import edu.rit.ds.registry.NotBoundException;
 import java.rmi.RemoteException;
 import edu.rit.ds.registry.RegistryProxy;
+import java.math.BigInteger;
+import java.rmi.NoSuchObjectException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Distributed object ComputeServer performs a run function on a job and
  * returns the job to the caller
  * 
+ * Jobs run on a JobPool for their type rather than on the RMI thread that
+ * received them.  Pools are set up from an optional comma separated list of
+ * pool specs; a pool of type * takes job types that have no pool of their
+ * own.  Without a list the server has a single * pool of one thread and no
+ * queue, so it runs one job at a time.  Small jobs may arrive in batches of
+ * one type, which take a single pool thread and run one after the other.
+ * The server registers its pool specs, so the JobScheduler knows how many
+ * jobs of each type it can send; a job sent to a full pool anyway is handed
+ * back unrun.
+ * 
+ * A server can warm up by running GCD and primality computations before it
+ * registers, so its first real jobs do not run on cold code.  When the
+ * process is stopped the server drains: the JobScheduler stops sending it
+ * jobs, the jobs it has finish, and then it deregisters.
+ * 
+ * Partial results and checkpoints go to the JobScheduler that sent the job,
+ * which comes with every call, so a standby that took over gets them for
+ * the jobs it sends.  Drain and deregister go to the JobScheduler that last
+ * sent a job, and to whichever one is bound under the name if that one
+ * cannot be reached.
+ * 
  * @author Matt Au
  */
 public class ComputeServer implements ComputeServerInterface{
     
     //Hidden data members
-    private JobSchedulerInterface jobSched;
+    private static final long CANCEL_MEMORY = 60000;
+    private static final long DRAIN_POLL = 50;
+    
+    private volatile JobSchedulerInterface jobSched;
+    private RegistryProxy proxyBot;
+    private String jsName;
+    private ComputeServerInterface myRef;
     private String name;
+    private LongMap<Thread> runningJobs = new LongMap<Thread>(64);
+    private LinkedHashMap<Long, Long> earlyCancels = 
+            new LinkedHashMap<Long, Long>();
+    private Timer deadlineTimer = new Timer(true);
+    private HashMap<String, JobPool> pools = new HashMap<String, JobPool>();
+    private AtomicInteger calls = new AtomicInteger();
     
     /**
      * ComputeJob function is to simply call the computeJob function on a job
      * 
+     * A StreamingJob is given a ResultChannel back to the JobScheduler for
+     * the length of the run.  Every result it emits has been delivered by the
+     * time the finished job is returned.
+     * 
+     * The job is interrupted if it is cancelled or its deadline passes while
+     * it runs; it is then returned marked cancelled.
+     * 
      * @param job BaseJob object that will have a job run
-     * @return BaseJob object after completion of job
+     * @param from the JobScheduler sending the job
+     * @return BaseJob object after completion of job, or null if the pool
+     *         for the job type is full
+     * @throws RemoteException thrown if there are any remote issues
+     */
+    @Override
+    public BaseJob computeJob(final BaseJob job, 
+            final JobSchedulerInterface from) throws RemoteException {
+        
+        jobSched = from;
+        return runOnPool(job.getType(), "job " + job.getName(), 
+                new Callable<BaseJob>() {
+            
+            @Override
+            public BaseJob call() {
+                
+                return execute(job, from);
+            }
+        });
+    }
+    
+    /**
+     * Runs a batch of small jobs of one type one after the other on a single
+     * thread of the pool for their type, so they share one round trip
+     * 
+     * Each job is watched for cancellation and its deadline as if it were
+     * sent on its own.  A job whose computation throws has the failure set
+     * on it and the rest of the batch still runs.
+     * 
+     * @param jobs BaseJob objects of one type, at least one
+     * @param from the JobScheduler sending the jobs
+     * @return the same jobs after completion, in the same order, or null if
+     *         the pool for the job type is full
      * @throws RemoteException thrown if there are any remote issues
      */
     @Override
-    public BaseJob computeJob(BaseJob job) throws RemoteException {
+    public BaseJob[] computeJobs(final BaseJob[] jobs, 
+            final JobSchedulerInterface from) throws RemoteException {
+        
+        jobSched = from;
+        return runOnPool(jobs[0].getType(), "batch of " + jobs.length 
+                + " jobs", new Callable<BaseJob[]>() {
+            
+            @Override
+            public BaseJob[] call() {
+                
+                for(int i = 0; i < jobs.length; i++) {
+                    
+                    try {
+                        execute(jobs[i], from);
+                    } catch (RuntimeException e) {
+                        jobs[i].setFailure(e);
+                    }
+                }
+                return jobs;
+            }
+        });
+    }
+    
+    /**
+     * Runs a task on the pool for a job type and waits for it
+     * 
+     * @param type the job type
+     * @param what what the task runs, for error messages
+     * @param task the task to run
+     * @return what the task returned, or null if there is no pool for the
+     *         job type or it is full
+     * @throws RemoteException thrown if the wait is interrupted
+     */
+    private <T> T runOnPool(String type, String what, Callable<T> task) 
+            throws RemoteException {
+        
+        JobPool pool = getPool(type);
+        if( pool == null ) {
+            
+            return null;
+        }
+        
+        Future<T> result;
+        try {
+            result = pool.submit(task);
+        } catch (RejectedExecutionException e) {
+            return null; // Full, the JobScheduler tries elsewhere
+        }
+        
+        calls.incrementAndGet();
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            throw new RemoteException("ComputeServer: Interrupted waiting "
+                    + "for " + what);
+        } catch (ExecutionException e) {
+            
+            //Job code failed, pass the failure on as is
+            if( e.getCause() instanceof RuntimeException ) {
+                
+                throw (RuntimeException) e.getCause();
+            }
+            throw (Error) e.getCause();
+        } finally {
+            calls.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Runs a job on the calling pool thread, watching for cancellation and
+     * for its deadline
+     * 
+     * @param job BaseJob object that will have a job run
+     * @param from the JobScheduler that sent the job
+     * @return BaseJob object after completion of job
+     */
+    private BaseJob execute(BaseJob job, JobSchedulerInterface from) {
+        
+        //Nobody is waiting for it anymore
+        if( job.isExpired() || job.isCancelled() ) {
+            
+            job.setCancelled(true);
+            return job;
+        }
+        
+        final Thread worker = Thread.currentThread();
+        TimerTask deadlineTask = null;
+        synchronized(runningJobs) {
+            
+            //Cancelled after it was sent but before it started
+            if( earlyCancels.remove(job.getID()) != null ) {
+                
+                job.setCancelled(true);
+                return job;
+            }
+            runningJobs.put(job.getID(), worker);
+        }
+        
+        if( job.getDeadline() != 0 ) {
+            
+            final long jobID = job.getID();
+            deadlineTask = new TimerTask() {
+                
+                @Override
+                public void run() {
+                    
+                    interruptJob(jobID);
+                }
+            };
+            deadlineTimer.schedule(deadlineTask, 
+                    new Date(job.getDeadline()));
+        }
         
-        job.computeJob();
+        TraceContext trace = job.getTrace();
+        if( trace != null ) {
+            
+            trace.mark(TraceContext.SERVER_START);
+        }
+        
+        long start = System.nanoTime();
+        try {
+            runJob(job, from);
+        } finally {
+            job.setComputeTime(System.nanoTime() - start);
+            if( trace != null ) {
+                
+                trace.mark(TraceContext.SERVER_END);
+            }
+            if( deadlineTask != null ) {
+                
+                deadlineTask.cancel();
+            }
+            
+            //Clear the interrupt so the pool thread can be reused
+            synchronized(runningJobs) {
+                
+                runningJobs.remove(job.getID());
+                if( Thread.interrupted() ) {
+                    
+                    job.setCancelled(true);
+                }
+            }
+        }
         return job;
     }
     
+    /**
+     * Runs the computation of a job on the calling thread
+     * 
+     * A Checkpointable job carries on from the checkpoint it was sent with,
+     * if any, and sends its checkpoints to the JobScheduler while it runs
+     * 
+     * @param job BaseJob object that will have a job run
+     * @param from the JobScheduler that sent the job
+     */
+    private void runJob(BaseJob job, JobSchedulerInterface from) {
+        
+        Checkpoint checkpoint = job.getCheckpoint();
+        if( checkpoint != null && job instanceof Checkpointable ) {
+            
+            ((Checkpointable) job).restoreCheckpoint(checkpoint.state);
+        }
+        
+        job.setCheckpointTarget(from);
+        try {
+            if( !(job instanceof StreamingJob) ) {
+                
+                job.computeJob();
+                return;
+            }
+            
+            StreamingJob streamingJob = (StreamingJob) job;
+            ResultChannel channel = new ResultChannel(from, job.getID(), 
+                    streamingJob.getBufferSize(), 
+                    checkpoint != null ? checkpoint.results : 0);
+            streamingJob.setChannel(channel);
+            try {
+                job.computeJob();
+            } finally {
+                channel.close();
+                streamingJob.setChannel(null);
+            }
+        } finally {
+            job.setCheckpointTarget(null);
+        }
+    }
+    
+    /**
+     * Finds the pool that runs a job type
+     * 
+     * @param type the job type
+     * @return the pool for the type, the * pool, or null if there is neither
+     */
+    private JobPool getPool(String type) {
+        
+        JobPool pool = pools.get(type);
+        return pool != null ? pool : pools.get("*");
+    }
+    
+    /**
+     * Interrupts a job that is running on this server
+     * 
+     * A job that is not running yet may still be on its way, waiting in the
+     * pool queue or in a batch, so the cancel is remembered for
+     * CANCEL_MEMORY milliseconds and the job is returned cancelled if it
+     * starts in that time.
+     * 
+     * @param jobID the unique id of the job to interrupt
+     * @return true if the job was running here
+     * @throws RemoteException thrown if there are any remote issues
+     */
+    @Override
+    public boolean cancelJob(long jobID) throws RemoteException {
+        
+        synchronized(runningJobs) {
+            
+            if( interruptJob(jobID) ) {
+                
+                return true;
+            }
+            
+            //Forget cancels for jobs that never came
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<Long, Long>> old = 
+                    earlyCancels.entrySet().iterator();
+            while( old.hasNext() 
+                    && old.next().getValue() < now - CANCEL_MEMORY ) {
+                
+                old.remove();
+            }
+            earlyCancels.put(jobID, now);
+            return false;
+        }
+    }
+    
+    /**
+     * Interrupts the thread running a job, if the job is still running
+     * 
+     * @param jobID the unique id of the job to interrupt
+     * @return true if the job was running here
+     */
+    private boolean interruptJob(long jobID) {
+        
+        synchronized(runningJobs) {
+            
+            Thread worker = runningJobs.get(jobID);
+            if( worker == null ) {
+                
+                return false;
+            }
+            worker.interrupt();
+            return true;
+        }
+    }
+    
     /**
      * Constructor for Start program
      * 
      * @param args String[] arguments used for object construction
      *             Params are host port jobschedulername servername
+     *             followed by an optional list of pool specs, for example
+     *             GCD:4:16:0-3,Primality:2:8,*:1:0, and an optional number
+     *             of warm-up rounds to run before registering
      * @throws RemoteException thrown if there are any issues connecting to the
      *                         registry or JobScheduler
      */
@@ -42,10 +382,31 @@ public class ComputeServer implements ComputeServerInterface{
         super();
         
         //Invalid amount of arguments
-        if(args.length != 4) {
+        if(args.length < 4 || args.length > 6) {
             
             throw new IllegalArgumentException("Proper execution: java Start "
-                    + "ComputeServer <host> <port> <jsname> <csname>");
+                    + "ComputeServer <host> <port> <jsname> <csname> "
+                    + "[<pools> [<warmup>]]");
+        }
+        
+        String poolList = args.length >= 5 ? args[4] : "*:1:0";
+        String[] poolSpecs = poolList.split(",");
+        for(int i = 0; i < poolSpecs.length; i++) {
+            
+            JobPool pool = JobPool.parse(poolSpecs[i]);
+            pools.put(pool.getType(), pool);
+        }
+        
+        //Invalid warm-up input
+        int warmUpRounds = 0;
+        if(args.length == 6) {
+            
+            try {
+                warmUpRounds = Integer.parseInt(args[5]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("ComputeServer: Invalid "
+                        + "warm-up rounds: " + args[5]);
+            }
         }
         
         String host = args[0];
@@ -60,8 +421,6 @@ public class ComputeServer implements ComputeServerInterface{
                     + "number: " + args[1]);
         }
         
-        RegistryProxy proxyBot = null;
-        
         //Invalid host name/port
         try {
             proxyBot = new RegistryProxy(host, port);
@@ -70,15 +429,18 @@ public class ComputeServer implements ComputeServerInterface{
                     + "invalid host name/port");
         }
         
-        ComputeServerInterface remoteReference = 
-                (ComputeServerInterface)UnicastRemoteObject.
+        //Take no traffic until warm
+        warmUp(warmUpRounds);
+        
+        myRef = (ComputeServerInterface)UnicastRemoteObject.
                 exportObject(this, 0);
         
         //Unable to reach JobScheduler, or it is unbound
         //Or unable to register
         try {
-            jobSched = (JobSchedulerInterface) proxyBot.lookup(args[2]);  
-            jobSched.registerServer(remoteReference);
+            jsName = args[2];
+            jobSched = (JobSchedulerInterface) proxyBot.lookup(jsName);  
+            jobSched.registerServer(myRef, poolList);
         } catch (RemoteException e ) {
             throw new RemoteException ("ComputeServer(): Unable to find job "
                     + "scheduler " + args[2]);
@@ -87,7 +449,131 @@ public class ComputeServer implements ComputeServerInterface{
             throw new RemoteException ("ComputeServer(): Unable to find job "
                     + "scheduler " + args[2]);
         }
-         
+        
+        //Leave gracefully when the process is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            
+            @Override
+            public void run() {
+                
+                drain(60000);
+            }
+        });
+    }
+    
+    /**
+     * Runs GCD and primality computations on random numbers so the code they
+     * use is compiled before real jobs arrive
+     * 
+     * @param rounds the number of jobs of each type to run
+     */
+    private void warmUp(int rounds) {
+        
+        Random random = new Random();
+        
+        for(int i = 0; i < rounds; i++) {
+            
+            BigInteger x = new BigInteger(256, random);
+            BigInteger y = new BigInteger(256, random);
+            new GcdJob(x, y).compute();
+            new PrimalityJob(x).compute();
+        }
+    }
+    
+    /**
+     * Takes the server out of service
+     * 
+     * The JobScheduler stops sending jobs, the jobs already here are given
+     * time to finish, and then the server deregisters and unexports itself.
+     * Calls still returning their jobs are waited for before the server
+     * deregisters, and again before it unexports, so no finished job is lost
+     * on the way back; only calls still running when time is up are cut off.
+     * 
+     * @param millis the longest time to wait for running jobs
+     */
+    public void drain(long millis) {
+        
+        try {
+            jobSched.drainServer(myRef);
+        } catch (RemoteException e) {
+            try {
+                lookUpScheduler().drainServer(myRef);
+            } catch (RemoteException e2) { } // Scheduler gone, nothing to drain
+        }
+        
+        long end = System.currentTimeMillis() + millis;
+        for( JobPool pool : pools.values() ) {
+            
+            pool.shutdown();
+        }
+        try {
+            for( JobPool pool : pools.values() ) {
+                
+                pool.awaitTermination(
+                        Math.max(0, end - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        //Jobs are done, let their calls return them
+        while( calls.get() > 0 && System.currentTimeMillis() < end ) {
+            
+            end = pause(DRAIN_POLL) ? end : 0;
+        }
+        
+        try {
+            jobSched.deregisterServer(myRef);
+        } catch (RemoteException e) {
+            try {
+                lookUpScheduler().deregisterServer(myRef);
+            } catch (RemoteException e2) { }
+        }
+        
+        //Unexport once no call is being answered, force it when time is up
+        try {
+            while( !UnicastRemoteObject.unexportObject(this, 
+                    System.currentTimeMillis() >= end) ) {
+                
+                end = pause(DRAIN_POLL) ? end : 0;
+            }
+        } catch (NoSuchObjectException e) { }
+    }
+    
+    /**
+     * Looks up the JobScheduler bound under its name again, after the one
+     * the server knew stopped answering
+     * 
+     * @return the JobScheduler now bound under the name
+     * @throws RemoteException thrown if the registry cannot be reached or
+     *                         nothing is bound under the name
+     */
+    private JobSchedulerInterface lookUpScheduler() throws RemoteException {
+        
+        try {
+            jobSched = (JobSchedulerInterface) proxyBot.lookup(jsName);
+            return jobSched;
+        } catch (NotBoundException e) {
+            throw new RemoteException("ComputeServer: No job scheduler "
+                    + "bound as " + jsName);
+        }
+    }
+    
+    /**
+     * Sleeps while draining
+     * 
+     * @param millis the time to sleep
+     * @return false if interrupted, which cuts the drain short
+     */
+    private boolean pause(long millis) {
+        
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
     
     /**
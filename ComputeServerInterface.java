@@ -13,12 +13,43 @@ public interface ComputeServerInterface extends Remote{
      * computeJob function on a job
      * 
      * @param job the job to run the function on
+     * @param jobSched the JobScheduler sending the job, which partial
+     *                 results and checkpoints of the job are sent to
      * @return a BaseJob that is the same as the one that came in, but with the
-     *         computation run, thus changing some element of the object
+     *         computation run, thus changing some element of the object, or
+     *         null if the server has no room for a job of its type
      * @throws RemoteException throws an exception if an error occurs when
      *                         computing the job or contacting the server
      */
-    BaseJob computeJob(BaseJob job) throws RemoteException;
+    BaseJob computeJob(BaseJob job, JobSchedulerInterface jobSched) 
+            throws RemoteException;
+    
+    /**
+     * Makes a method call on a remote ComputeServer object to run a batch of
+     * jobs of one type, one after the other, in a single call
+     * 
+     * @param jobs the jobs to run, all of the same type
+     * @param jobSched the JobScheduler sending the jobs, which partial
+     *                 results and checkpoints of the jobs are sent to
+     * @return the jobs after their computation, in the same order, or null
+     *         if the server has no room for the batch; a job whose
+     *         computation threw has the failure set on it
+     * @throws RemoteException throws an exception if an error occurs when
+     *                         contacting the server
+     */
+    BaseJob[] computeJobs(BaseJob[] jobs, JobSchedulerInterface jobSched) 
+            throws RemoteException;
+    
+    /**
+     * Makes a method call on a remote ComputeServer object to interrupt a job
+     * it is running
+     * 
+     * @param jobID the unique id of the job to interrupt
+     * @return true if the job was running on this server
+     * @throws RemoteException throws an exception if an error occurs when
+     *                         contacting the server
+     */
+    boolean cancelJob(long jobID) throws RemoteException;
     
     /**
      * Makes a method call on a remote ComputeServer object to return the name
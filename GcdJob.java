@@ -1,6 +1,9 @@
 
 import edu.rit.ds.registry.NotBoundException;
 import edu.rit.ds.registry.RegistryProxy;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.rmi.RemoteException;
 
@@ -10,7 +13,7 @@ import java.rmi.RemoteException;
  * and a BigInteger that is the result of this gcd computation
  * This class has the ability to send a copy of itself to the job scheduler
  * Then, it waits for a response and outputs the gcd of the two input numbers
- *
+ * 
  * @author Matt Au
  */
 public class GcdJob extends BaseJob {
@@ -42,11 +45,53 @@ public class GcdJob extends BaseJob {
         
         try {
             Thread.sleep(10000);
-        } catch (InterruptedException ex) { }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt(); // Cancelled, no result
+            return;
+        }
+        
+        compute();
+    }
+    
+    /**
+     * The computation itself, without the sleep period
+     * Also run by a ComputeServer to warm up before it takes jobs
+     */
+    void compute() {
         
         myGCD = intOne.gcd(intTwo);
     }
     
+    /**
+     * Writes the job for the compact encoding of JobQueue
+     * 
+     * @param out where the job is written
+     * @throws IOException thrown if the job cannot be written
+     */
+    @Override
+    void writeCompact(DataOutput out) throws IOException {
+        
+        super.writeCompact(out);
+        writeBigInteger(out, intOne);
+        writeBigInteger(out, intTwo);
+        writeBigInteger(out, myGCD);
+    }
+    
+    /**
+     * Reads the job written by writeCompact
+     * 
+     * @param in where the job is read from
+     * @throws IOException thrown if the job cannot be read
+     */
+    @Override
+    void readCompact(DataInput in) throws IOException {
+        
+        super.readCompact(in);
+        intOne = readBigInteger(in);
+        intTwo = readBigInteger(in);
+        myGCD = readBigInteger(in);
+    }
+    
     /**
      * Main function
      * Sets up the parameters to enable proper job execution
@@ -114,8 +159,19 @@ public class GcdJob extends BaseJob {
         myJob.setType("GCD");
         myJob.setName(args[3]);
              
-        myJob = (GcdJob) jobSched.doJob(myJob, false);
+        myJob.setID(jobSched.newJobID());
+        
+        //Cancel the job if the client is stopped before it finishes
+        Thread cancelHook = cancelOnExit(jobSched, myJob.getID());
+        Runtime.getRuntime().addShutdownHook(cancelHook);
+        myJob = (GcdJob) submit(proxyBot, args[2], myJob);
+        Runtime.getRuntime().removeShutdownHook(cancelHook);
         
+        if(myJob.isCancelled()) {
+            
+            System.out.println("cancelled");
+            return;
+        }
         System.out.println(myJob.myGCD);
     }
 }
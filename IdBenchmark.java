@@ -0,0 +1,133 @@
+import java.util.UUID;
+
+/**
+ * Class IdBenchmark compares the cost of issuing job IDs with
+ * UUID.randomUUID, as doJob used to, against IdService
+ * 
+ * Each approach is run by a number of threads at once, since contention on
+ * the shared SecureRandom is the main cost of randomUUID.  Results are 
+ * printed as nanoseconds per ID and IDs per second.
+ *
+ * @author Matt Au
+ */
+public class IdBenchmark {
+    
+    // Hidden data members
+    private static volatile long sink;
+    
+    /**
+     * Main function
+     * Runs each approach a few times to warm up, then once to measure
+     * 
+     * @param args Command line input should be: 
+     *             threads idsperthread
+     * @throws InterruptedException Thrown if interrupted while waiting
+     */
+    public static void main(String[] args) throws InterruptedException {
+        
+        // Invalid argument length
+        if(args.length != 2) {
+            
+            throw new IllegalArgumentException("Proper execution: java "
+                    + "IdBenchmark <threads> <idsperthread>");
+        }
+        
+        int threads;
+        int count;
+        
+        // Invalid numbers
+        try {
+            threads = Integer.parseInt(args[0]);
+            count = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("IdBenchmark: Invalid "
+                    + "number(s) from input: " + args[0] + " " + args[1]);
+        }
+        
+        final IdService idService = new IdService(0);
+        
+        Runnable uuid = new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                sink += UUID.randomUUID().getLeastSignificantBits();
+            }
+        };
+        Runnable idServ = new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                sink += idService.nextID();
+            }
+        };
+        
+        for(int i = 0; i < 3; i++) {
+            
+            measure(uuid, threads, count);
+            measure(idServ, threads, count);
+        }
+        
+        report("UUID.randomUUID", measure(uuid, threads, count), 
+                threads, count);
+        report("IdService.nextID", measure(idServ, threads, count), 
+                threads, count);
+    }
+    
+    /**
+     * Runs an action count times on each of a number of threads
+     * 
+     * @param action the action to time
+     * @param threads the number of threads to run at once
+     * @param count the number of times each thread runs the action
+     * @return the elapsed time in nanoseconds
+     * @throws InterruptedException Thrown if interrupted while waiting
+     */
+    private static long measure(final Runnable action, int threads, 
+            final int count) throws InterruptedException {
+        
+        Thread[] workers = new Thread[threads];
+        for(int i = 0; i < threads; i++) {
+            
+            workers[i] = new Thread(new Runnable() {
+                
+                @Override
+                public void run() {
+                    
+                    for(int j = 0; j < count; j++) {
+                        
+                        action.run();
+                    }
+                }
+            });
+        }
+        
+        long start = System.nanoTime();
+        for(int i = 0; i < threads; i++) {
+            
+            workers[i].start();
+        }
+        for(int i = 0; i < threads; i++) {
+            
+            workers[i].join();
+        }
+        return System.nanoTime() - start;
+    }
+    
+    /**
+     * Prints the result of one measurement
+     * 
+     * @param name the name of the approach
+     * @param nanos the elapsed time in nanoseconds
+     * @param threads the number of threads that ran
+     * @param count the number of IDs each thread issued
+     */
+    private static void report(String name, long nanos, int threads, 
+            int count) {
+        
+        long total = (long) threads * count;
+        System.out.printf("%-18s %8.1f ns/id %,14d ids/s%n", name, 
+                (double) nanos / total, total * 1000000000L / nanos);
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class IdService issues 64 bit job IDs that are unique and increase over
+ * time
+ * 
+ * An ID is made of 41 bits of milliseconds since 2020-01-01, a 10 bit
+ * instance prefix and a 12 bit sequence number, so one instance can issue
+ * 4096 IDs per millisecond and IDs from different instances never collide.
+ * If the sequence runs out, or the clock steps back, IDs keep counting up
+ * from the last one issued, so they are always increasing.
+ * 
+ * Issuing an ID is a single compare-and-set, there is no locking and no call
+ * to SecureRandom.  An ID is never 0, so 0 can mean "no ID".
+ *
+ * @author Matt Au
+ */
+public class IdService {
+    
+    // Hidden data members
+    private static final long EPOCH = 1577836800000L; // 2020-01-01 UTC
+    private static final int INSTANCE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    
+    private final long prefix;
+    private final AtomicLong last = new AtomicLong();
+    
+    /**
+     * Constructor taking the instance prefix
+     * 
+     * @param instance number of this instance, 0 to 1023
+     */
+    public IdService(int instance) {
+        
+        if(instance < 0 || instance >= (1 << INSTANCE_BITS)) {
+            
+            throw new IllegalArgumentException("IdService: Invalid instance "
+                    + "number: " + instance);
+        }
+        
+        prefix = (long) instance << SEQUENCE_BITS;
+    }
+    
+    /**
+     * Issues the next ID
+     * 
+     * @return a positive ID greater than every ID issued before by this
+     *         IdService
+     */
+    public long nextID() {
+        
+        while(true) {
+            
+            long prev = last.get();
+            long now = System.currentTimeMillis() - EPOCH;
+            long prevTime = prev >>> (INSTANCE_BITS + SEQUENCE_BITS);
+            long next;
+            
+            if(now > prevTime) {
+                
+                next = (now << (INSTANCE_BITS + SEQUENCE_BITS)) | prefix;
+            }
+            else if((prev & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                
+                next = prev + 1;
+            }
+            else {
+                
+                //Sequence used up, borrow the next millisecond
+                next = ((prevTime + 1) << (INSTANCE_BITS + SEQUENCE_BITS)) 
+                        | prefix;
+            }
+            
+            if(last.compareAndSet(prev, next)) {
+                
+                return next;
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class JobPool is a fixed size thread pool that runs one type of job on a
+ * ComputeServer
+ * 
+ * Giving each job type its own pool keeps a heavy job type from taking every
+ * thread on a server.  A pool runs at most threads jobs at once and holds at
+ * most queueLimit more; jobs beyond that are rejected.  A job that arrives
+ * just as a thread finishes waits up to HANDOFF_WAIT milliseconds for that
+ * thread to come back for it before being rejected.  Its threads can
+ * optionally be pinned to a set of CPUs.
+ * 
+ * A pool is described by a spec of the form type:threads:queue[:cpus], for
+ * example GCD:4:16:0-3.  The cpus part is a list in the format taken by the
+ * Linux taskset command.
+ *
+ * @author Matt Au
+ */
+public class JobPool {
+    
+    // Hidden data members
+    private static final long HANDOFF_WAIT = 100;
+    
+    private final String type;
+    private final int threads;
+    private final int queueLimit;
+    private final String cpus;
+    private final ThreadPoolExecutor executor;
+    
+    /**
+     * Constructor taking the pool settings
+     * 
+     * @param type the job type the pool runs, or * for any type
+     * @param threads the number of jobs run at once, at least 1
+     * @param queueLimit the number of jobs that may wait for a thread
+     * @param cpus CPUs to pin the pool threads to, or null for no pinning
+     */
+    public JobPool(String type, int threads, int queueLimit, String cpus) {
+        
+        if(threads < 1 || queueLimit < 0) {
+            
+            throw new IllegalArgumentException("JobPool: Invalid size for "
+                    + "pool " + type + ": " + threads + " " + queueLimit);
+        }
+        
+        this.type = type;
+        this.threads = threads;
+        this.queueLimit = queueLimit;
+        this.cpus = cpus;
+        
+        BlockingQueue<Runnable> queue;
+        if(queueLimit == 0) {
+            
+            queue = new SynchronousQueue<Runnable>();
+        }
+        else {
+            
+            queue = new ArrayBlockingQueue<Runnable>(queueLimit);
+        }
+        
+        executor = new ThreadPoolExecutor(threads, threads, 0L, 
+                TimeUnit.MILLISECONDS, queue, new PoolThreadFactory(), 
+                new HandoffPolicy());
+    }
+    
+    /**
+     * Builds a pool from a spec of the form type:threads:queue[:cpus]
+     * 
+     * @param spec the pool spec
+     * @return a new JobPool
+     */
+    public static JobPool parse(String spec) {
+        
+        String[] parts = spec.split(":");
+        
+        //Invalid spec
+        if(parts.length < 3 || parts.length > 4) {
+            
+            throw new IllegalArgumentException("JobPool: Invalid pool spec "
+                    + spec + ", expected type:threads:queue[:cpus]");
+        }
+        
+        try {
+            return new JobPool(parts[0], Integer.parseInt(parts[1]), 
+                    Integer.parseInt(parts[2]), 
+                    parts.length == 4 ? parts[3] : null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("JobPool: Invalid pool spec "
+                    + spec + ", expected type:threads:queue[:cpus]");
+        }
+    }
+    
+    /**
+     * Accessor for type
+     * 
+     * @return the job type the pool runs
+     */
+    public String getType() {
+        
+        return type;
+    }
+    
+    /**
+     * Accessor for the number of threads
+     * 
+     * @return the number of jobs the pool runs at once
+     */
+    public int getThreads() {
+        
+        return threads;
+    }
+    
+    /**
+     * Hands a job to the pool
+     * 
+     * @param task the work to run
+     * @return a Future for the result of the task
+     * @throws java.util.concurrent.RejectedExecutionException thrown if every
+     *         thread is busy and the queue is full
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        
+        return executor.submit(task);
+    }
+    
+    /**
+     * Stops taking jobs, jobs already taken still run
+     */
+    public void shutdown() {
+        
+        executor.shutdown();
+    }
+    
+    /**
+     * Waits for the jobs already taken to finish after shutdown
+     * 
+     * @param millis the longest time to wait
+     * @return true if every job finished in time
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    public boolean awaitTermination(long millis) throws InterruptedException {
+        
+        return executor.awaitTermination(millis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Pins the calling thread to the CPUs of the pool
+     * 
+     * Java has no affinity call of its own, so this finds the Linux thread id
+     * and runs taskset on it.  Anywhere that does not work, the thread is
+     * simply left unpinned.
+     */
+    private void pin() {
+        
+        if(cpus == null) {
+            
+            return;
+        }
+        
+        try {
+            String tid = new File("/proc/thread-self").getCanonicalFile()
+                    .getName();
+            new ProcessBuilder("taskset", "-p", "-c", cpus, tid)
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File("/dev/null"))
+                    .start().waitFor();
+        } catch (IOException e) {
+            // Not Linux or no taskset, run unpinned
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * RejectedExecutionHandler that gives a thread which has returned its
+     * last result, but not yet gone back to the queue, a moment to take the
+     * job before it is rejected
+     */
+    private static class HandoffPolicy implements RejectedExecutionHandler {
+        
+        @Override
+        public void rejectedExecution(Runnable r, 
+                ThreadPoolExecutor executor) {
+            
+            try {
+                if( !executor.isShutdown() && executor.getQueue()
+                        .offer(r, HANDOFF_WAIT, TimeUnit.MILLISECONDS) ) {
+                    
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new RejectedExecutionException("JobPool: Pool is full");
+        }
+    }
+    
+    /**
+     * ThreadFactory that names pool threads after the job type and pins them
+     * before they take their first job
+     */
+    private class PoolThreadFactory implements ThreadFactory {
+        
+        private final AtomicInteger count = new AtomicInteger();
+        
+        @Override
+        public Thread newThread(final Runnable r) {
+            
+            Thread t = new Thread(new Runnable() {
+                
+                @Override
+                public void run() {
+                    
+                    pin();
+                    r.run();
+                }
+            }, "JobPool-" + type + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
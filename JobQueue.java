@@ -0,0 +1,642 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Class JobQueue is a first in, first out queue of jobs waiting for a
+ * ComputeServer, kept serialized in a single buffer
+ * 
+ * Each queued job is serialized into a direct ByteBuffer arena as a record of
+ * a 20 byte header (key, payload length, flags, hash of the job type)
+ * followed by the job bytes.
+ * The first job byte names the encoding.  GcdJobs, PrimalityJobs and
+ * SyntheticJobs that have not yet run are written field by field, in about
+ * an eighth of the space Java serialization takes with its class
+ * descriptors; any other job is serialized.
+ * Records are appended at the tail and taken from anywhere; a taken record is
+ * only flagged and its space is reclaimed when the arena is compacted.  A
+ * LongIntMap indexes records by key.  Keeping the queue in one buffer lets
+ * it be written to a snapshot as it is, a chunk at a time.  It does not
+ * take the jobs off the heap: the thread that queued a job still holds it
+ * until the job has run.
+ * 
+ * Jobs of each type are taken in order, but types do not wait for each other:
+ * peek finds the first waiting job of one type.  Where that search ended is
+ * kept for each type, so a long run of other types is walked once rather
+ * than on every call.
+ * 
+ * A queue restored from a snapshot holds orphans: jobs whose clients were
+ * waiting on another JobScheduler.  Orphans keep their place but are skipped
+ * until a client sends the same job ID again and adopts them.
+ * 
+ * All functions are synchronized on the queue.
+ * 
+ * @author Matt Au
+ */
+public class JobQueue {
+    
+    // Hidden data members
+    private static final int HEADER = 20;
+    private static final int TAKEN = 1;
+    private static final int CANCELLED = 2;
+    private static final int ORPHAN = 4;
+    private static final int RUN_SCAN = 4;
+    private static final int SERIALIZED = 0;
+    private static final int GCD = 1;
+    private static final int PRIMALITY = 2;
+    private static final int SYNTHETIC = 3;
+    
+    private ByteBuffer arena;
+    private LongIntMap index = new LongIntMap(1024);
+    private LongIntMap typeHeads = new LongIntMap(16);
+    private int head = 0;
+    private int tail = 0;
+    private int count = 0;
+    private int moves = 0;
+    
+    /**
+     * Constructor taking the initial size of the arena
+     * 
+     * @param capacity initial arena size in bytes, grows as needed
+     */
+    public JobQueue(int capacity) {
+        
+        arena = ByteBuffer.allocateDirect(capacity);
+    }
+    
+    /**
+     * Adds a job to the tail of the queue
+     * 
+     * @param key non-zero key the job is found by, unique in the queue
+     * @param job the BaseJob to queue
+     * @throws IOException thrown if the job cannot be serialized
+     * @throws IllegalArgumentException thrown if the key is already queued
+     */
+    public void offer(long key, BaseJob job) throws IOException {
+        
+        append(key, ByteBuffer.wrap(serialize(job)), 0, 
+                typeHash(job.getType()));
+    }
+    
+    /**
+     * Serializes a job the way it is held in the queue
+     * 
+     * @param job the BaseJob to serialize
+     * @return the serialized job
+     * @throws IOException thrown if the job cannot be serialized
+     */
+    public static byte[] serialize(BaseJob job) throws IOException {
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        int codec = codecOf(job);
+        bytes.write(codec);
+        
+        if(codec == SERIALIZED) {
+            
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(job);
+            out.close();
+        }
+        else {
+            
+            DataOutputStream out = new DataOutputStream(bytes);
+            job.writeCompact(out);
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Rebuilds a job from the bytes made by serialize
+     * 
+     * @param payload the serialized job
+     * @return the job
+     * @throws IOException thrown if the job cannot be deserialized
+     */
+    public static BaseJob deserialize(byte[] payload) throws IOException {
+        
+        ByteArrayInputStream bytes = new ByteArrayInputStream(payload);
+        int codec = bytes.read();
+        
+        if(codec == SERIALIZED) {
+            
+            ObjectInputStream in = new ObjectInputStream(bytes);
+            try {
+                return (BaseJob) in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("JobQueue: Unknown job class", e);
+            }
+        }
+        
+        BaseJob job;
+        if(codec == GCD) {
+            
+            job = new GcdJob(null, null);
+        }
+        else if(codec == PRIMALITY) {
+            
+            job = new PrimalityJob(null);
+        }
+        else if(codec == SYNTHETIC) {
+            
+            job = new SyntheticJob(0);
+        }
+        else {
+            
+            throw new IOException("JobQueue: Unknown job encoding " + codec);
+        }
+        job.readCompact(new DataInputStream(bytes));
+        return job;
+    }
+    
+    /**
+     * Picks the encoding for a job, exact classes only so a subclass with
+     * fields of its own is never cut short
+     * 
+     * @param job the BaseJob to encode
+     * @return GCD, PRIMALITY or SYNTHETIC for a job with a compact encoding,
+     *         otherwise SERIALIZED
+     */
+    private static int codecOf(BaseJob job) {
+        
+        if( !job.isCompact() ) {
+            
+            return SERIALIZED;
+        }
+        if( job.getClass() == GcdJob.class ) {
+            
+            return GCD;
+        }
+        if( job.getClass() == PrimalityJob.class ) {
+            
+            return PRIMALITY;
+        }
+        if( job.getClass() == SyntheticJob.class ) {
+            
+            return SYNTHETIC;
+        }
+        return SERIALIZED;
+    }
+    
+    /**
+     * Adds an already serialized job to the tail of the queue as an orphan
+     * 
+     * @param key non-zero key the job is found by, unique in the queue
+     * @param payload the serialized BaseJob
+     * @throws IllegalArgumentException thrown if the key is already queued
+     */
+    public void offerOrphan(long key, byte[] payload) {
+        
+        append(key, ByteBuffer.wrap(payload), ORPHAN, 0);
+    }
+    
+    /**
+     * Adds the jobs still waiting in a copy made by writeTo to the tail of
+     * the queue as orphans, in order
+     * 
+     * Records that were taken or cancelled, and keys already queued, are
+     * skipped.  Orphans keep the type hash they were queued with.
+     * 
+     * @param records the records, between position and limit
+     * @return the number of orphans added
+     */
+    public synchronized int offerOrphans(ByteBuffer records) {
+        
+        int added = 0;
+        for(int at = records.position(); at < records.limit(); 
+                at += HEADER + records.getInt(at + 8)) {
+            
+            long key = records.getLong(at);
+            if((records.getInt(at + 12) & (TAKEN | CANCELLED)) != 0 
+                    || index.get(key) >= 0) {
+                
+                continue;
+            }
+            
+            ByteBuffer payload = records.duplicate();
+            payload.limit(at + HEADER + records.getInt(at + 8));
+            payload.position(at + HEADER);
+            append(key, payload, ORPHAN, records.getInt(at + 16));
+            added++;
+        }
+        return added;
+    }
+    
+    /**
+     * Lets a new caller take over an orphan, which then waits for its turn
+     * like any other job
+     * 
+     * @param key the key of the orphan
+     * @param type the type of the job, which orphans are saved without
+     * @return true if there was an orphan with the key
+     */
+    public synchronized boolean adopt(long key, String type) {
+        
+        int at = index.get(key);
+        if(at < 0 || (arena.getInt(at + 12) & ORPHAN) == 0) {
+            
+            return false;
+        }
+        arena.putInt(at + 12, arena.getInt(at + 12) & ~ORPHAN);
+        arena.putInt(at + 16, typeHash(type));
+        
+        //Waiting again, maybe ahead of where the search for its type is
+        long typeKey = typeKey(typeHash(type));
+        if(typeHeads.get(typeKey) > at) {
+            
+            typeHeads.put(typeKey, at);
+        }
+        return true;
+    }
+    
+    /**
+     * Removes every orphan that has not been adopted
+     * 
+     * @return the number of orphans removed
+     */
+    public synchronized int dropOrphans() {
+        
+        int dropped = 0;
+        for(int at = head; at < tail; at += HEADER + arena.getInt(at + 8)) {
+            
+            if((arena.getInt(at + 12) & ORPHAN) != 0) {
+                
+                index.remove(arena.getLong(at));
+                release(at);
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+    
+    /**
+     * Writes the records of the queue, in order, for a snapshot
+     * 
+     * Whole records are copied a chunk at a time, each under the queue lock,
+     * and written out with the lock released, so a long queue holds up
+     * neither the jobs being queued and taken nor the memory of a second
+     * arena.  Records queued while the copy is made are copied too, up to
+     * the tail, and once nothing is left atEnd is run under the lock, so
+     * what it reads goes with exactly the records written.  If the records
+     * move meanwhile the copy starts over from the head, which repeats
+     * records; offerOrphans skips keys it already has.  Records taken
+     * before they are reached come along flagged and are skipped too.
+     * 
+     * @param out where the records are written
+     * @param chunk buffer to copy through, a record longer than it gets a
+     *              buffer of its own
+     * @param atEnd run under the lock once every record has been copied
+     * @return the number of bytes written
+     * @throws IOException thrown if the records cannot be written
+     */
+    public long writeTo(WritableByteChannel out, ByteBuffer chunk, 
+            Runnable atEnd) throws IOException {
+        
+        long written = 0;
+        int at = 0;
+        int seen = -1;
+        
+        while(true) {
+            
+            ByteBuffer records;
+            synchronized(this) {
+                
+                if(seen != moves) {
+                    
+                    seen = moves;
+                    at = head;
+                }
+                if(at >= tail) {
+                    
+                    atEnd.run();
+                    return written;
+                }
+                
+                int end = at + HEADER + arena.getInt(at + 8);
+                while(end < tail && end + HEADER + arena.getInt(end + 8) - at 
+                        <= chunk.capacity()) {
+                    
+                    end += HEADER + arena.getInt(end + 8);
+                }
+                
+                records = end - at <= chunk.capacity() ? 
+                        chunk : ByteBuffer.allocate(end - at);
+                ByteBuffer live = arena.duplicate();
+                live.limit(end);
+                live.position(at);
+                records.clear();
+                records.put(live);
+                records.flip();
+                at = end;
+            }
+            
+            while(records.hasRemaining()) {
+                
+                written += out.write(records);
+            }
+        }
+    }
+    
+    /**
+     * Writes a record at the tail of the arena
+     * 
+     * @param key non-zero key the job is found by, unique in the queue
+     * @param payload the serialized BaseJob, between position and limit
+     * @param flags the flags the record starts with
+     * @param type the hash of the job type
+     * @throws IllegalArgumentException thrown if the key is already queued
+     */
+    private synchronized void append(long key, ByteBuffer payload, int flags, 
+            int type) {
+        
+        if(index.get(key) >= 0) {
+            
+            throw new IllegalArgumentException("JobQueue: Key already "
+                    + "queued: " + key);
+        }
+        
+        int length = payload.remaining();
+        reserve(HEADER + length);
+        arena.putLong(tail, key);
+        arena.putInt(tail + 8, length);
+        arena.putInt(tail + 12, flags);
+        arena.putInt(tail + 16, type);
+        ByteBuffer view = arena.duplicate();
+        view.position(tail + HEADER);
+        view.put(payload);
+        
+        index.put(key, tail);
+        tail += HEADER + length;
+        count++;
+    }
+    
+    /**
+     * Marks a record taken and reclaims taken records at the head
+     * 
+     * @param at offset of the record
+     */
+    private void release(int at) {
+        
+        arena.putInt(at + 12, TAKEN);
+        count--;
+        
+        //Reclaim taken records at the head right away
+        if(count == 0) {
+            
+            head = 0;
+            tail = 0;
+            typeHeads.clear();
+            moves++;
+        }
+        while(head < tail && arena.getInt(head + 12) == TAKEN) {
+            
+            head += HEADER + arena.getInt(head + 8);
+        }
+    }
+    
+    /**
+     * Finds the first job of a type waiting in the queue, skipping cancelled
+     * jobs, orphans and jobs of other types
+     * 
+     * Types are matched by hash, so two types with the same hash share a
+     * head.
+     * 
+     * @param type the job type
+     * @return the key of the first job of the type waiting, or 0 if there is
+     *         none
+     */
+    public synchronized long peek(String type) {
+        
+        int hash = typeHash(type);
+        long typeKey = typeKey(hash);
+        int at = Math.max(head, typeHeads.get(typeKey));
+        while(at < tail) {
+            
+            if(arena.getInt(at + 12) == 0 && arena.getInt(at + 16) == hash) {
+                
+                break;
+            }
+            at += HEADER + arena.getInt(at + 8);
+        }
+        
+        //Records before it hold no waiting job of the type
+        typeHeads.put(typeKey, at);
+        return at < tail ? arena.getLong(at) : 0;
+    }
+    
+    /**
+     * Finds jobs of one type waiting in the queue, in queue order, skipping
+     * cancelled jobs, orphans, and jobs already taken
+     * 
+     * No more than RUN_SCAN times max waiting jobs are looked at, so a long
+     * queue of other types is not walked on every dispatch.  Types are
+     * matched by hash, so a caller that must not mix types checks the jobs
+     * it takes.
+     * 
+     * @param type the job type
+     * @param max the most keys to return
+     * @return keys of up to max waiting jobs of the type, starting from the
+     *         first one
+     */
+    public synchronized long[] peekRun(String type, int max) {
+        
+        int hash = typeHash(type);
+        long[] keys = new long[max];
+        int found = 0;
+        int scanned = 0;
+        
+        for(int at = Math.max(head, typeHeads.get(typeKey(hash))); 
+                at < tail && found < max 
+                && scanned <= max * RUN_SCAN; 
+                at += HEADER + arena.getInt(at + 8)) {
+            
+            if(arena.getInt(at + 12) != 0) {
+                
+                continue;
+            }
+            
+            scanned++;
+            if(arena.getInt(at + 16) == hash) {
+                
+                keys[found++] = arena.getLong(at);
+            }
+        }
+        
+        long[] run = new long[found];
+        System.arraycopy(keys, 0, run, 0, found);
+        return run;
+    }
+    
+    /**
+     * Hashes a job type the way it is kept in a record header
+     * 
+     * @param type the job type, may be null
+     * @return the hash of the type
+     */
+    private static int typeHash(String type) {
+        
+        return type == null ? 0 : type.hashCode();
+    }
+    
+    /**
+     * Turns a type hash into a key for the type heads, which cannot be 0
+     * 
+     * @param hash the hash of the type
+     * @return the key for the type
+     */
+    private static long typeKey(int hash) {
+        
+        return (hash & 0xFFFFFFFFL) | (1L << 32);
+    }
+    
+    /**
+     * Removes a job from the queue
+     * 
+     * @param key the key the job was queued with
+     * @return the job, marked cancelled if cancel was called on it, or null
+     *         if it is not in the queue
+     * @throws IOException thrown if the job cannot be deserialized
+     */
+    public BaseJob take(long key) throws IOException {
+        
+        byte[] payload;
+        boolean cancelled;
+        
+        synchronized(this) {
+            
+            int at = index.remove(key);
+            if(at < 0) {
+                
+                return null;
+            }
+            
+            payload = new byte[arena.getInt(at + 8)];
+            ByteBuffer view = arena.duplicate();
+            view.position(at + HEADER);
+            view.get(payload);
+            cancelled = (arena.getInt(at + 12) & CANCELLED) != 0;
+            release(at);
+        }
+        
+        BaseJob job = deserialize(payload);
+        job.setCancelled(job.isCancelled() || cancelled);
+        return job;
+    }
+    
+    /**
+     * Marks a queued job cancelled so it is skipped by peek, it stays in the
+     * queue until it is taken
+     * 
+     * @param key the key the job was queued with
+     * @return true if the job is in the queue
+     */
+    public synchronized boolean cancel(long key) {
+        
+        int at = index.get(key);
+        if(at < 0) {
+            
+            return false;
+        }
+        arena.putInt(at + 12, arena.getInt(at + 12) | CANCELLED);
+        return true;
+    }
+    
+    /**
+     * Determines if a queued job has been cancelled
+     * 
+     * @param key the key the job was queued with
+     * @return true if the job is in the queue and cancelled
+     */
+    public synchronized boolean isCancelled(long key) {
+        
+        int at = index.get(key);
+        return at >= 0 && (arena.getInt(at + 12) & CANCELLED) != 0;
+    }
+    
+    /**
+     * Accessor for size
+     * 
+     * @return the number of jobs in the queue, cancelled ones included
+     */
+    public synchronized int size() {
+        
+        return count;
+    }
+    
+    /**
+     * Makes room for a record at the tail, compacting the arena if enough
+     * of it is taken and doubling it otherwise
+     * 
+     * @param length size of the record in bytes
+     */
+    private void reserve(int length) {
+        
+        if(tail + length <= arena.capacity()) {
+            
+            return;
+        }
+        
+        long needed = (long) tail - head + length;
+        long capacity = arena.capacity();
+        while(capacity < needed * 2) {
+            
+            capacity <<= 1;
+        }
+        if(capacity > Integer.MAX_VALUE) {
+            
+            throw new IllegalStateException("JobQueue: Arena full");
+        }
+        
+        ByteBuffer target = capacity == arena.capacity() ? 
+                arena : ByteBuffer.allocateDirect((int) capacity);
+        compact(target);
+    }
+    
+    /**
+     * Copies the records still in the queue to the front of a buffer, in
+     * order, and points the index at their new places
+     * 
+     * @param target the buffer to copy into, may be the arena itself
+     */
+    private void compact(ByteBuffer target) {
+        
+        ByteBuffer from = arena.duplicate();
+        ByteBuffer into = target.duplicate();
+        byte[] record = new byte[256];
+        int at = head;
+        int to = 0;
+        
+        while(at < tail) {
+            
+            int length = HEADER + arena.getInt(at + 8);
+            if(arena.getInt(at + 12) != TAKEN) {
+                
+                //Records only move left, copying through an array is safe
+                long key = arena.getLong(at);
+                if(record.length < length) {
+                    
+                    record = new byte[length];
+                }
+                from.position(at);
+                from.get(record, 0, length);
+                into.position(to);
+                into.put(record, 0, length);
+                index.put(key, to);
+                to += length;
+            }
+            at += length;
+        }
+        
+        arena = target;
+        head = 0;
+        tail = to;
+        typeHeads.clear(); // Records have moved
+        moves++;
+    }
+}
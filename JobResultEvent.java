@@ -0,0 +1,34 @@
+import edu.rit.ds.RemoteEvent;
+import java.io.Serializable;
+
+/**
+ * Class JobResultEvent carries partial results of a StreamingJob from the
+ * ComputeServer, through the JobScheduler, to the client that submitted the
+ * job
+ * 
+ * Each event holds a batch of results in the order they were emitted.  The
+ * sequence number is the index of the first result in the batch, so a client
+ * can tell how many results it has seen in total.
+ *
+ * @author Matt Au
+ */
+public class JobResultEvent extends RemoteEvent {
+    
+    public final long jobID;
+    public final long sequence;
+    public final Serializable[] results;
+    
+    /**
+     * Constructor taking the job the results belong to and the results
+     * 
+     * @param jobID the unique id of the job that produced the results
+     * @param sequence index of the first result in this batch
+     * @param results the results in the order they were emitted
+     */
+    public JobResultEvent(long jobID, long sequence, Serializable[] results) {
+        
+        this.jobID = jobID;
+        this.sequence = sequence;
+        this.results = results;
+    }
+}
@@ -3,12 +3,22 @@ import edu.rit.ds.registry.NotBoundException;
 import edu.rit.ds.registry.RegistryProxy;
 import edu.rit.ds.RemoteEventGenerator;
 import edu.rit.ds.RemoteEventListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
-import java.util.UUID;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
@@ -18,10 +28,39 @@ import java.util.concurrent.LinkedBlockingQueue;
  * registered Logger objects
  * 
  * Jobs are inserted into a queue awaiting a vacant ComputeServer object 
- * to allow computation to occur
+ * to allow computation to occur.  While they wait they are held serialized in
+ * a JobQueue, and the call that sent each one waits for its result.
  * 
  * The JobScheduler object handles registration of ComputeServers objects 
- * and Logger objects
+ * and Logger objects.  ComputeServers can join, drain and leave at any time;
+ * the server list is copied on write, so dispatch never waits on it.
+ * 
+ * Given a snapshot file, the JobScheduler saves its state there every
+ * second from a background thread and loads it again on restart.  A standby
+ * JobScheduler does not bind its name; it watches the one that does and,
+ * once that one stops answering, loads the latest snapshot and binds the
+ * name itself.  Jobs loaded from a snapshot keep their place in the queue
+ * until their clients send them again, which the clients do on failure.
+ * 
+ * Each job type has a head of its own, the first job of the type waiting in
+ * the queue, and only the head looks for a server.  Jobs of one type go out
+ * in order, and a type whose pools are all full holds up only its own jobs,
+ * not jobs of other types queued behind it.
+ * 
+ * Small jobs are sent to a ComputeServer in batches.  The head of a type
+ * takes jobs of its type waiting behind it, as many as its Batcher finds
+ * worth a round trip, and sends them all in one call; the clients of the
+ * jobs it took are handed their results when the call returns.  Threads
+ * waiting in the queue are parked and woken when the head of their type
+ * moves, rather than polling it.
+ * 
+ * A Checkpointable job sends its progress while it runs.  The JobScheduler
+ * keeps the last checkpoint with the dispatched job, so a job resent after
+ * its ComputeServer fails carries on from there on another server, and
+ * results the client already has are not passed on again.
+ * 
+ * Given a trace file, the JobScheduler traces a sample of jobs through each
+ * stage of their run and writes the traces there for a trace viewer.
  * 
  * @author Matt Au
  */
@@ -30,28 +69,96 @@ public class JobScheduler implements JobSchedulerInterface {
     //Hidden data members
     private RegistryProxy proxyBot;
     private String myName;
+    private JobSchedulerInterface myRef;
+    private volatile boolean fenced = false;
     private RemoteEventGenerator<JobSchedulerEvent> eventGenerator;
-    private static LinkedBlockingQueue<BaseJob> requestQueue = 
-            new LinkedBlockingQueue<BaseJob>();
-    private ArrayList<ComputeServerInterface> availServerList = 
-            new ArrayList<ComputeServerInterface>();
+    private static JobQueue requestQueue = new JobQueue(1 << 20);
+    private IdService idService;
+    private File snapshotFile = null;
+    private ByteBuffer snapshotBuffer = 
+            ByteBuffer.allocateDirect(SNAPSHOT_CHUNK);
+    private Timer snapshotTimer = new Timer(true);
+    private CopyOnWriteArrayList<RemoteEventListener<JobSchedulerEvent>> 
+            registeredLoggers = 
+            new CopyOnWriteArrayList<RemoteEventListener<JobSchedulerEvent>>();
+    private static final long SNAPSHOT_INTERVAL = 1000;
+    private static final int SNAPSHOT_CHUNK = 1 << 16;
+    private static final long WATCH_INTERVAL = 250;
+    private static final int TAKEOVER_PROBES = 4;
+    private static final long ORPHAN_GRACE = 30000;
+    private static final long QUEUE_POLL = 500000000;
+    private static final long SERVER_WAIT = 1000000000L;
+    private CopyOnWriteArrayList<ServerRecord> availServerList = 
+            new CopyOnWriteArrayList<ServerRecord>();
+    private LongMap<RemoteEventListener<JobResultEvent>> resultListeners = 
+            new LongMap<RemoteEventListener<JobResultEvent>>(1024);
+    private LongMap<BaseJob> dispatchedJobs = new LongMap<BaseJob>(1024);
+    private LongMap<ComputeServerInterface> runningJobs = 
+            new LongMap<ComputeServerInterface>(1024);
+    private LongMap<Thread> waiters = new LongMap<Thread>(1024);
+    private LongMap<Run> runs = new LongMap<Run>(1024);
+    private ConcurrentLinkedQueue<Thread> serverWaiters = 
+            new ConcurrentLinkedQueue<Thread>();
+    private LongMap<BatchSlot> batchSlots = new LongMap<BatchSlot>(1024);
+    private LongMap<Long> resultsDelivered = new LongMap<Long>(1024);
+    private Batcher batcher = new Batcher();
+    private Tracer tracer = null;
        
     /**
      * JobScheduler constructor for Start
      * 
      * @param args String[] arguments are in the format below
-     *             host port JobSchedulername
+     *             host port JobSchedulername [snapshotfile [standby]]
+     *             [instance=number] [trace=tracefile[,rate]], tracing one
+     *             job in rate, or one in 100 if no rate is given; the
+     *             instance number, 0 to 1023, goes into every job ID issued
+     *             and must differ between JobSchedulers that share a
+     *             snapshot, so it must be given with a snapshot file and is
+     *             0 otherwise
      * @throws java.rmi.RemoteException 
      */
     public JobScheduler(String[] args) throws java.rmi.RemoteException {
         super();
         
+        //Optional trace file comes last
+        if(args.length > 3 && args[args.length - 1].startsWith("trace=")) {
+            
+            tracer = openTracer(args[args.length - 1].substring(6));
+            args = Arrays.copyOf(args, args.length - 1);
+        }
+        
+        //Optional instance number before it
+        int instance = -1;
+        if(args.length > 3 && args[args.length - 1].startsWith("instance=")) {
+            
+            instance = parseInstance(args[args.length - 1].substring(9));
+            args = Arrays.copyOf(args, args.length - 1);
+        }
+        
         // improper number of arguments
-        if(args.length != 3) {
+        if(args.length < 3 || args.length > 5 
+                || (args.length == 5 && !args[4].equals("standby"))) {
             
             throw new IllegalArgumentException("Proper execution: java Start "
-                    + "JobScheduler <host> <port> <jsname>");
+                    + "JobScheduler <host> <port> <jsname> [<snapshotfile> "
+                    + "[standby]] [instance=<number>] "
+                    + "[trace=<tracefile>[,<rate>]]");
+        }
+        
+        //JobSchedulers sharing a snapshot must not issue the same IDs
+        if(instance < 0 && args.length >= 4) {
+            
+            throw new IllegalArgumentException("JobScheduler: "
+                    + "instance=<number> is required with a snapshot file, "
+                    + "and must differ between JobSchedulers sharing it");
+        }
+        idService = new IdService(Math.max(instance, 0));
+        
+        if(args.length >= 4) {
+            
+            snapshotFile = new File(args[3]);
         }
+        eventGenerator = new RemoteEventGenerator<JobSchedulerEvent>();
         
         String host = args[0];
         int port;
@@ -72,10 +179,22 @@ public class JobScheduler implements JobSchedulerInterface {
                     + "invalid host name/port");
         }
         
-        JobSchedulerInterface remoteReference = 
-                (JobSchedulerInterface)UnicastRemoteObject.
+        myRef = (JobSchedulerInterface)UnicastRemoteObject.
                 exportObject(this, 0);
         
+        //Standby waits for the name to be free
+        if(args.length == 5) {
+            
+            watchPrimary(args[2]);
+            return;
+        }
+        
+        //Pick up where the last run left off
+        if(snapshotFile != null) {
+            
+            restore();
+        }
+        
         //Attempt to bind in registry
         try {
             // Same name exists already
@@ -97,63 +216,411 @@ public class JobScheduler implements JobSchedulerInterface {
             throw new RemoteException("Unable to unexport self");
         }
         
-        eventGenerator = new RemoteEventGenerator<JobSchedulerEvent>();
+        if(snapshotFile != null) {
+            
+            startSnapshots();
+        }
     }   
     
     /**
-     * Removes disconnected ComputeServer objects from the available server list
+     * Reads the instance number given as instance=number
      * 
-     * @param removeMe a list of ComputeServerInterface objects that need to be
-     *                 removed from the server list
+     * @param number the number, 0 to 1023
+     * @return the instance number
      */
-    private void pruneServers(ArrayList<ComputeServerInterface> removeMe) {
+    private static int parseInstance(String number) {
+        
+        //Invalid instance number
+        try {
+            int instance = Integer.parseInt(number);
+            if(instance >= 0 && instance < 1024) {
                 
-        for( int j = 0; j < removeMe.size(); j++ ) {
-
-            availServerList.remove(removeMe.get(j));
-        }  
+                return instance;
+            }
+        } catch (NumberFormatException e) { }
+        
+        throw new IllegalArgumentException("JobScheduler: Invalid instance "
+                + "number: " + number);
     }
     
     /**
-     * Function to retrieve an available ComputeServer to perform a job
+     * Opens the trace file
      * 
-     * @return a ComputeServerInterface that represents an available server
+     * @param spec the trace file, optionally followed by a comma and the
+     *             sampling rate
+     * @return a Tracer writing to the file
      */
-    private ComputeServerInterface getServer(){
-                       
-        synchronized(this) {
+    private static Tracer openTracer(String spec) {
+        
+        String[] parts = spec.split(",");
+        int rate = 100;
+        
+        //Invalid sampling rate
+        if(parts.length > 1) {
             
-            ArrayList<ComputeServerInterface> removeMe = 
-                new ArrayList<ComputeServerInterface>();
-            
-            for(int i = 0; i < availServerList.size(); i++ ) {
-                ComputeServerInterface server = availServerList.get(i);
-                try{
-                    server.getName(); // Determine if alive                
-                    //Found valid server, remove bad ones found
-                    if(removeMe.size() > 0) {
-                                
-                        pruneServers(removeMe);
-                    }
-                    return server;
+            try {
+                rate = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("JobScheduler: Invalid "
+                        + "trace rate: " + parts[1]);
+            }
+        }
+        
+        try {
+            return new Tracer(new File(parts[0]), rate);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("JobScheduler: Unable to open "
+                    + "trace file: " + parts[0]);
+        }
+    }
+    
+    /**
+     * Checks on the JobScheduler bound under a name every WATCH_INTERVAL
+     * milliseconds and takes over the name once it has failed to answer
+     * TAKEOVER_PROBES times in a row, so a single slow answer or dropped
+     * connection does not start a second primary
+     * 
+     * @param name the name the JobScheduler is bound under
+     */
+    private void watchPrimary(final String name) {
+        
+        snapshotTimer.schedule(new TimerTask() {
+            
+            private int failures = 0;
+            
+            @Override
+            public void run() {
+                
+                try {
+                    ((JobSchedulerInterface) proxyBot.lookup(name)).ping();
+                    failures = 0;
+                    return; // Still alive
+                } catch (NotBoundException e) {
+                    // Name is free
+                } catch (RemoteException e) {
+                    // Not answering
+                }
+                
+                if( ++failures < TAKEOVER_PROBES ) {
                     
-                } catch ( RemoteException e) {
-                    removeMe.add(server); // Add bad server to a list to remove
+                    return;
                 }
+                cancel();
+                takeOver(name);
             }
-            //No available servers, prune list
-            if(removeMe.size() > 0) {
-                            
-                pruneServers(removeMe);
+        }, WATCH_INTERVAL, WATCH_INTERVAL);
+    }
+    
+    /**
+     * Loads the latest snapshot and binds this JobScheduler under the name
+     * of the one that stopped
+     * 
+     * @param name the name to bind under
+     */
+    private void takeOver(String name) {
+        
+        restore();
+        try {
+            proxyBot.rebind(name, this);
+            myName = name;
+        } catch (RemoteException e) {
+            watchPrimary(name); // Registry unreachable, try again later
+            return;
+        }
+        
+        eventGenerator.reportEvent( new JobSchedulerEvent("JobScheduler " + 
+                name + " taken over by standby"));
+        startSnapshots();
+    }
+    
+    /**
+     * Loads the snapshot file, if there is one
+     * 
+     * Saved jobs are queued as orphans that keep their place until their
+     * clients send them again; orphans not claimed within ORPHAN_GRACE
+     * milliseconds are dropped
+     */
+    private void restore() {
+        
+        SchedulerSnapshot snapshot;
+        try {
+            snapshot = SchedulerSnapshot.read(snapshotFile);
+        } catch (IOException e) {
+            return; // Unreadable snapshot, start empty
+        }
+        
+        if(snapshot == null) {
+            
+            return;
+        }
+        
+        for(int i = 0; i < snapshot.jobIDs.size(); i++) {
+            
+            try {
+                requestQueue.offerOrphan(snapshot.jobIDs.get(i), 
+                        snapshot.jobs.get(i));
+            } catch (IllegalArgumentException e) { } // Already sent again
+        }
+        requestQueue.offerOrphans(snapshot.getQueue());
+        
+        for( ServerRecord record : snapshot.servers ) {
+            
+            if( findServer(record.getServer()) == null ) {
+                
+                availServerList.add(record);
+            }
+        }
+        
+        for( RemoteEventListener<JobSchedulerEvent> listener : 
+                snapshot.loggers ) {
+            
+            try {
+                registerLogger(listener);
+            } catch (RemoteException e) { } // Logger gone
+        }
+        
+        snapshotTimer.schedule(new TimerTask() {
+            
+            @Override
+            public void run() {
+                
+                requestQueue.dropOrphans();
+            }
+        }, ORPHAN_GRACE);
+    }
+    
+    /**
+     * Starts saving a snapshot every SNAPSHOT_INTERVAL milliseconds on the
+     * timer thread, so dispatch never waits for the disk
+     * 
+     * Before each snapshot the name is looked up to make sure this
+     * JobScheduler still holds it.  No snapshot is written while that cannot
+     * be checked, and once the name is found bound to another JobScheduler
+     * this one fences itself off.
+     */
+    private void startSnapshots() {
+        
+        snapshotTimer.schedule(new TimerTask() {
+            
+            @Override
+            public void run() {
+                
+                if( !stillBound() ) {
+                    
+                    return;
+                }
+                
+                try {
+                    saveSnapshot();
+                } catch (IOException e) {
+                    eventGenerator.reportEvent( new JobSchedulerEvent(
+                            "Snapshot failed: " + e.getMessage()));
+                }
+            }
+        }, SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL);
+    }
+    
+    /**
+     * Checks that this JobScheduler is still the one bound under its name,
+     * fencing it off if it is not
+     * 
+     * @return true if it is still bound, false if it is not or the registry
+     *         cannot be reached
+     */
+    private boolean stillBound() {
+        
+        try {
+            if( myRef.equals(proxyBot.lookup(myName)) ) {
+                
+                return true;
+            }
+        } catch (NotBoundException e) {
+            // Unbound, a standby may be about to take the name
+        } catch (RemoteException e) {
+            return false; // Registry unreachable, check again next time
+        }
+        fence();
+        return false;
+    }
+    
+    /**
+     * Stops this JobScheduler after another has taken over its name
+     * 
+     * Snapshots stop, so the new JobScheduler's snapshot is not overwritten,
+     * jobs still here are not sent to ComputeServers anymore, and the object
+     * is unexported so clients waiting on it look the name up again and
+     * resend their jobs to the new JobScheduler.
+     */
+    private void fence() {
+        
+        fenced = true;
+        snapshotTimer.cancel();
+        eventGenerator.reportEvent( new JobSchedulerEvent("JobScheduler " + 
+                myName + " is no longer bound, stopping"));
+        
+        //Wake every waiting job so it notices
+        for( Thread waiter : waiters.values() ) {
+            
+            LockSupport.unpark(waiter);
+        }
+        wakeServerWaiters();
+        
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException e) { }
+    }
+    
+    /**
+     * Stops a job that is still here once this JobScheduler is fenced off,
+     * so its client sends it to the JobScheduler that took over
+     * 
+     * @throws NotBoundException thrown if this JobScheduler is fenced off
+     */
+    private void checkFenced() throws NotBoundException {
+        
+        if( fenced ) {
+            
+            throw new NotBoundException();
+        }
+    }
+    
+    /**
+     * Saves the current state to the snapshot file
+     * 
+     * Running jobs come first, as a new JobScheduler would have to run them
+     * again, followed by the queue in order.  They are picked up once the
+     * queue has been copied, so a job taken from the queue meanwhile is in
+     * one or the other.  The queue is copied a chunk at a time through a
+     * buffer that is kept for the next snapshot, which is only ever taken on
+     * the timer thread.
+     * 
+     * @throws IOException thrown if the snapshot cannot be written
+     */
+    private void saveSnapshot() throws IOException {
+        
+        new SchedulerSnapshot(new ArrayList<ServerRecord>(availServerList), 
+                new ArrayList<RemoteEventListener<JobSchedulerEvent>>(
+                        registeredLoggers))
+                .write(snapshotFile, requestQueue, snapshotBuffer, 
+                        dispatchedJobs);
+    }
+    
+    /**
+     * Removes a disconnected ComputeServer object from the available server
+     * list
+     * 
+     * @param removeMe the ServerRecord that needs to be removed from the
+     *                 server list
+     */
+    private void pruneServer(ServerRecord removeMe) {
+                
+        availServerList.remove(removeMe);
+    }
+    
+    /**
+     * Finds the record of a registered ComputeServer
+     * 
+     * @param serverRef a reference to the ComputeServer
+     * @return the ServerRecord, or null if the server is not registered
+     */
+    private ServerRecord findServer(ComputeServerInterface serverRef) {
+        
+        for( ServerRecord record : availServerList ) {
+            
+            if( record.getServer().equals(serverRef) ) {
+                
+                return record;
             }
         }
+        return null;
+    }
+    
+    /**
+     * Function to retrieve an available ComputeServer to perform a job
+     * 
+     * Of the servers with a free slot in their pool for the job type, the
+     * one with the fewest calls in progress for its capacity is chosen, and
+     * a slot on it is reserved for the job.  Servers are not asked anything,
+     * the JobScheduler goes by the slots it has reserved itself.
+     * 
+     * Waits while every server is full, until a slot is released or a server
+     * registers.  Gives up if the job is cancelled or passes its deadline
+     * while waiting, or if this JobScheduler is fenced off.
+     * 
+     * @param jobID the unique id of the job that needs a server
+     * @param type the type of the job
+     * @param deadline the deadline of the job, or 0 for none
+     * @return the ServerRecord of a server with a slot reserved on it, to be
+     *         released once the call to it returns, or null if the job no
+     *         longer needs one
+     */
+    private ServerRecord getServer(long jobID, String type, long deadline){
         
-        // No available servers, wait 5 seconds, try again
+        Thread me = Thread.currentThread();
+        serverWaiters.add(me);
         try {
-            Thread.sleep(5000);
-        } catch (InterruptedException ex) { }
+            while( !fenced && !isCancelled(jobID) && !isExpired(deadline) ) {
+                
+                ServerRecord best = null;
+                double bestLoad = Double.MAX_VALUE;
+                for( ServerRecord record : availServerList ) {
+                    
+                    if( record.hasRoom(type) ) {
+                        
+                        double load = (double) record.getInFlight() 
+                                / record.getCapacity();
+                        if( load < bestLoad ) {
+                            
+                            best = record;
+                            bestLoad = load;
+                        }
+                    }
+                }
+                
+                if( best != null && best.reserve(type) ) {
+                    
+                    return best;
+                }
+                
+                //Slot taken meanwhile, look again
+                if( best != null ) {
+                    
+                    continue;
+                }
+                
+                // No available servers, wait to be woken, or for a pool that
+                // turned jobs away to be tried again, 1 second at most
+                LockSupport.parkNanos(SERVER_WAIT);
+            }
+            return null;
+        } finally {
+            serverWaiters.remove(me);
+        }
+    }
+    
+    /**
+     * Wakes every thread waiting in getServer for a server with room
+     */
+    private void wakeServerWaiters() {
+        
+        for( Thread waiter : serverWaiters ) {
+            
+            LockSupport.unpark(waiter);
+        }
+    }
+    
+    /**
+     * Determines whether a job was cancelled, while it is queued or while
+     * it is being dispatched
+     * 
+     * @param jobID the unique id of the job
+     * @return true if the job was cancelled
+     */
+    private boolean isCancelled(long jobID) {
         
-        return getServer();
+        BaseJob job = dispatchedJobs.get(jobID);
+        return job != null ? job.isCancelled() 
+                : requestQueue.isCancelled(jobID);
     }
     
     /**
@@ -171,6 +638,18 @@ public class JobScheduler implements JobSchedulerInterface {
      * This function also sends messages to all known Logger objects whenever a
      * job is added the queue, sent to a server, or finished by a server.
      * 
+     * A job that is cancelled, or whose deadline passes, is taken out of the
+     * queue or interrupted on its ComputeServer and comes back marked
+     * cancelled instead of being run to completion.
+     * 
+     * For a StreamingJob with a result listener, the listener is known to the
+     * JobScheduler for as long as the job is here so that reportResult can
+     * pass partial results on to it.
+     * 
+     * A job sent again while it is still here, by a client that lost its
+     * connection, is not queued a second time; the call waits for the run
+     * already in progress and gets the same result.
+     * 
      * @param job a BaseJob that needs to have its computation
      * @param reDo a boolean value that is true only on the first queue of a
      *             BaseJob.  If a job is dropped and requeued, this value is
@@ -182,84 +661,967 @@ public class JobScheduler implements JobSchedulerInterface {
     public BaseJob doJob(BaseJob job, boolean reDo) 
             throws RemoteException,NotBoundException{      
         
-        //Set unique ID for job
-        job.setID(UUID.randomUUID());
-        requestQueue.offer(job);
-        
-        //If first time in the queue
-        if( !reDo ) {
+        //Set unique ID for job, it is kept when the job is rescheduled
+        if( job.getID() == 0 ) {
             
-            //Send event
-            eventGenerator.reportEvent( new JobSchedulerEvent("Job " + 
-                    job.getName() + " scheduled"));
+            job.setID(idService.nextID());
         }
+        long jobID = job.getID();
         
-        // While the top of the queue isn't our uniquely ID'd job
-        while(!requestQueue.peek().getID().equals(job.getID())) {
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException ex) { }
-        }        
-        
-        //Get a server
-        ComputeServerInterface server = getServer();
-        availServerList.remove(server);
-        
-        requestQueue.poll();
-        BaseJob returnJob = null;
-        String serverName = null;
+        //Sent again while it is still here, wait for the run in progress
+        Run run = new Run();
+        Run running = runs.putIfAbsent(jobID, run);
+        if( running != null ) {
+            
+            //Results from now on go to the client that is still there
+            if( job instanceof StreamingJob 
+                    && ((StreamingJob) job).getResultListener() != null ) {
+                
+                resultListeners.replace(jobID, 
+                        ((StreamingJob) job).getResultListener());
+            }
+            return running.await();
+        }
         
-        //Send job object to ComputeServer object and send event
         try {
-            serverName = server.getName();
-            eventGenerator.reportEvent( new JobSchedulerEvent("Job " + 
-                    job.getName() + " started on " + serverName));
-            returnJob = server.computeJob(job);
+            run.result = schedule(job, reDo);
+            return run.result;
         } catch (RemoteException e) {
-
-            return doJob(job, true);
+            run.error = e;
+            throw e;
+        } catch (NotBoundException e) {
+            run.error = e;
+            throw e;
+        } catch (RuntimeException e) {
+            run.error = e;
+            throw e;
+        } finally {
+            runs.remove(jobID);
+            dispatchedJobs.remove(jobID);
+            resultListeners.remove(jobID);
+            resultsDelivered.remove(jobID);
+            run.done.countDown();
         }
-            
-        //Send message, set server availibility and return the job object
-        eventGenerator.reportEvent( new JobSchedulerEvent("Job " + 
-                job.getName() + " finished on " + serverName));
-        availServerList.add(server);
-        return returnJob;
     }
-
+    
     /**
-     * Allows registration of a ComputeServer object with the 
-     * JobScheduler object
+     * Queues a job and waits for it to run, for doJob and for resending a
+     * job whose ComputeServer failed
      * 
-     * @param serverRef a ComputeServerInterface object that is a reference to a
-     *                  ComputeServer object running remotely elsewhere
-     * @return true if the service is performed
-     * @throws RemoteException if there is a problem contacting the JobScheduler
+     * @param job a BaseJob with its unique ID set
+     * @param reDo true if the job is being rescheduled
+     * @return a BaseJob that has had its computation run to completion
+     * @throws RemoteException thrown if the job cannot be queued or resent
+     * @throws NotBoundException thrown if the JobScheduler is no longer bound
      */
-    @Override
-    public boolean registerServer(ComputeServerInterface serverRef) 
-            throws RemoteException {
+    private BaseJob schedule(BaseJob job, boolean reDo) 
+            throws RemoteException,NotBoundException{
         
-        synchronized(this) {
+        long jobID = job.getID();
+        
+        //Trace a sample of new jobs, from their first time in the queue
+        if( tracer != null && !reDo && job.getTrace() == null 
+                && tracer.sample() ) {
             
-            availServerList.add(serverRef);
-            return true;
-        }      
+            job.setTrace(new TraceContext());
+        }
+        if( job.getTrace() != null 
+                && job.getTrace().get(TraceContext.ENQUEUE) == 0 ) {
+            
+            job.getTrace().mark(TraceContext.ENQUEUE);
+        }
+        long deadline = job.getDeadline();
+        
+        //Remember where partial results go
+        RemoteEventListener<JobResultEvent> resultListener = null;
+        if( job instanceof StreamingJob ) {
+            
+            resultListener = ((StreamingJob) job).getResultListener();
+        }
+        
+        if( resultListener != null ) {
+            
+            resultListeners.put(jobID, resultListener);
+        }
+        String type = job.getType();
+        long enqueued = System.nanoTime();
+        enqueue(job, reDo);
+        
+        //Resent jobs leave dispatchedJobs only once queued, so a snapshot
+        //always finds them in one or the other
+        dispatchedJobs.remove(jobID);
+        return runJob(jobID, type, deadline, enqueued);
     }
-
+    
     /**
-     * Allows registration of a RemoteEventListner object from Logger with the 
-     * JobScheduler object
+     * Adds a job to the queue
      * 
-     * @param listener a RemoteEventListener object that will need to be
-     *                 broadcast to when certain events happen
-     * @return a Lease object to the calling Object
-     * @throws RemoteException if there is a problem contacting the JobScheduler
+     * @param job a BaseJob with its unique ID set
+     * @param reDo true if the job is being rescheduled
+     * @throws RemoteException thrown if the job cannot be queued
      */
-    @Override
-    public Lease registerLogger(RemoteEventListener<JobSchedulerEvent> listener) 
-            throws RemoteException {
+    private void enqueue(BaseJob job, boolean reDo) throws RemoteException {
+        
+        //Sent again after a failover, it keeps its place
+        if( requestQueue.adopt(job.getID(), job.getType()) ) {
+            
+            return;
+        }
+        
+        try {
+            requestQueue.offer(job.getID(), job);
+        } catch (IOException e) {
+            throw new RemoteException("JobScheduler: Unable to queue job " 
+                    + job.getName(), e);
+        } catch (IllegalArgumentException e) {
+            throw new RemoteException("JobScheduler: Job ID already queued: " 
+                    + job.getID());
+        }
         
-        return eventGenerator.addListener(listener);
+        //If first time in the queue
+        if( !reDo ) {
+            
+            //Send event
+            eventGenerator.reportEvent( new JobSchedulerEvent("Job " + 
+                    job.getName() + " scheduled"));
+        }
+    }
+    
+    /**
+     * Waits for a queued job to become the head of its type and runs it on a
+     * ComputeServer, or for the head to take it into a batch
+     * 
+     * @param jobID the unique id of the job
+     * @param type the type of the job
+     * @param deadline the deadline of the job, or 0 for none
+     * @param enqueued System.nanoTime when the job was queued
+     * @return a BaseJob that has had its computation run to completion
+     * @throws RemoteException thrown if the job cannot be rescheduled
+     * @throws NotBoundException thrown if the JobScheduler is no longer bound
+     */
+    private BaseJob runJob(long jobID, String type, long deadline, 
+            long enqueued) 
+            throws RemoteException,NotBoundException{
+        
+        waiters.put(jobID, Thread.currentThread());
+        try {
+            while(true) {
+                
+                checkFenced();
+                
+                //Taken into a batch by the job ahead
+                BatchSlot slot = batchSlots.get(jobID);
+                if( slot != null ) {
+                    
+                    return awaitBatch(jobID, slot, enqueued);
+                }
+                
+                BaseJob returnJob = null;
+                if( requestQueue.peek(type) == jobID ) {
+                    
+                    returnJob = dispatch(jobID, type, deadline, enqueued);
+                }
+                //Dropped from the queue, nobody wants it anymore
+                else if( requestQueue.isCancelled(jobID) 
+                        || isExpired(deadline) ) {
+                    
+                    returnJob = dropJob(jobID, type);
+                }
+                else {
+                    
+                    LockSupport.parkNanos(QUEUE_POLL);
+                }
+                
+                //Null if a batch took the job meanwhile
+                if( returnJob != null ) {
+                    
+                    return returnJob;
+                }
+            }
+        } finally {
+            waiters.remove(jobID);
+        }
+    }
+    
+    /**
+     * Runs the head of a type on a ComputeServer, together with jobs of its
+     * type waiting behind it if they are small enough to batch
+     * 
+     * A slot is reserved on the server before the jobs leave the queue.  If
+     * the server turns them away all the same, they are sent to the next
+     * server with room rather than back to the queue.
+     * 
+     * @param jobID the unique id of the job
+     * @param type the type of the job
+     * @param deadline the deadline of the job, or 0 for none
+     * @param enqueued System.nanoTime when the job was queued
+     * @return a BaseJob that has had its computation run to completion, or
+     *         null if the job was taken into a batch meanwhile
+     * @throws RemoteException thrown if the job cannot be rescheduled
+     * @throws NotBoundException thrown if the JobScheduler is no longer bound
+     */
+    private BaseJob dispatch(long jobID, String type, long deadline, 
+            long enqueued) 
+            throws RemoteException,NotBoundException{
+        
+        //Get a server
+        long head = TraceContext.now();
+        ServerRecord record = getServer(jobID, type, deadline);
+        if( record == null ) {
+            
+            checkFenced();
+            return dropJob(jobID, type);
+        }
+        
+        BaseJob job;
+        ArrayList<BatchSlot> batch = new ArrayList<BatchSlot>();
+        BaseJob[] returnJobs = null;
+        String serverName = null;
+        try {
+            //Give more jobs of the type a moment to arrive
+            int size = batcher.batchSize(type, requestQueue.size() - 1);
+            long linger = batcher.linger(type, requestQueue.size() - 1);
+            if( linger > 0 ) {
+                
+                LockSupport.parkNanos(linger);
+                size = batcher.batchSize(type, requestQueue.size() - 1);
+            }
+            
+            //Take the jobs out of the queue where cancel can still see them
+            ArrayList<BatchSlot> slots = new ArrayList<BatchSlot>();
+            long taken = System.nanoTime();
+            synchronized(requestQueue) {
+                
+                if( batchSlots.containsKey(jobID) ) {
+                    
+                    return null;
+                }
+                job = takeJob(jobID);
+                dispatchedJobs.put(jobID, job);
+                
+                if( size > 1 && !job.isCancelled() ) {
+                    
+                    for( long key : requestQueue.peekRun(type, size - 1) ) {
+                        
+                        BatchSlot slot = new BatchSlot(key, taken);
+                        batchSlots.put(key, slot);
+                        slots.add(slot);
+                        try {
+                            slot.job = takeJob(key);
+                        } catch (RemoteException e) {
+                            slot.error = e;
+                            slot.finish(null);
+                            continue;
+                        }
+                        dispatchedJobs.put(key, slot.job);
+                        
+                        //Types are matched by hash, resend a mismatch
+                        if( !type.equals(slot.job.getType()) ) {
+                            
+                            slot.finish(null);
+                            continue;
+                        }
+                        batch.add(slot);
+                    }
+                }
+            }
+            job.setQueueWait(job.getQueueWait() + taken - enqueued);
+            long dequeued = TraceContext.now();
+            mark(job, TraceContext.HEAD, head);
+            mark(job, TraceContext.DEQUEUE, dequeued);
+            wakeHead(type);
+            for( BatchSlot slot : slots ) {
+                
+                wake(slot.key);
+            }
+            
+            BaseJob[] jobs = new BaseJob[1 + batch.size()];
+            jobs[0] = job;
+            for(int i = 0; i < batch.size(); i++) {
+                
+                jobs[i + 1] = batch.get(i).job;
+                mark(jobs[i + 1], TraceContext.HEAD, dequeued);
+                mark(jobs[i + 1], TraceContext.DEQUEUE, dequeued);
+            }
+            
+            //Send job objects to ComputeServer object and send events
+            checkFenced();
+            while( record != null ) {
+                
+                ComputeServerInterface server = record.getServer();
+                boolean full = false;
+                for( BaseJob sent : jobs ) {
+                    
+                    runningJobs.put(sent.getID(), server);
+                }
+                try {
+                    //Cancelled before cancel could see where it is going
+                    if( job.isCancelled() ) {
+                        
+                        break;
+                    }
+                    
+                    serverName = server.getName();
+                    for( BaseJob sent : jobs ) {
+                        
+                        eventGenerator.reportEvent( new JobSchedulerEvent(
+                                "Job " + sent.getName() + " started on " 
+                                + serverName));
+                    }
+                    
+                    long sent = TraceContext.now();
+                    for( BaseJob traced : jobs ) {
+                        
+                        mark(traced, TraceContext.DISPATCH, sent);
+                    }
+                    
+                    long start = System.nanoTime();
+                    if( jobs.length == 1 ) {
+                        
+                        BaseJob returned = server.computeJob(job, myRef);
+                        returnJobs = returned == null ? 
+                                null : new BaseJob[] { returned };
+                    }
+                    else {
+                        
+                        returnJobs = server.computeJobs(jobs, myRef);
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    
+                    if( returnJobs != null ) {
+                        
+                        long compute = 0;
+                        long back = TraceContext.now();
+                        for( BaseJob returned : returnJobs ) {
+                            
+                            compute += returned.getComputeTime();
+                            mark(returned, TraceContext.RETURN, back);
+                        }
+                        batcher.record(type, jobs.length, elapsed, compute);
+                        break;
+                    }
+                    
+                    //Turned away unrun, the jobs wait for room elsewhere
+                    full = true;
+                    for( BaseJob unrun : jobs ) {
+                        
+                        eventGenerator.reportEvent( new JobSchedulerEvent(
+                                "Job " + unrun.getName() + " turned away by " 
+                                + serverName));
+                    }
+                } catch (ServerException e) {
+                    break; // Failed on the server, resent below
+                } catch (RemoteException e) {
+                    pruneServer(record); // Server is gone, resent below
+                    break;
+                } finally {
+                    for( BaseJob sent : jobs ) {
+                        
+                        runningJobs.remove(sent.getID());
+                    }
+                    record.release(type, full);
+                    record = null;
+                    wakeServerWaiters();
+                }
+                record = getServer(jobID, type, deadline);
+            }
+        } finally {
+            if( record != null ) {
+                
+                record.release(type, false);
+                wakeServerWaiters();
+            }
+            
+            //Jobs in the batch are resent by their own threads on failure
+            for(int i = 0; i < batch.size(); i++) {
+                
+                batch.get(i).finish(returnJobs == null ? 
+                        null : returnJobs[i + 1]);
+            }
+        }
+        
+        if( returnJobs == null ) {
+            
+            //Only resend jobs someone is still waiting for
+            if( job.isCancelled() || job.isExpired() ) {
+                
+                return dropJob(job);
+            }
+            retry(job);
+            return schedule(job, true);
+        }
+        
+        for( BaseJob returned : returnJobs ) {
+            
+            reportDone(returned, serverName);
+            if( tracer != null ) {
+                
+                tracer.export(returned, serverName);
+            }
+        }
+        return rethrow(returnJobs[0]);
+    }
+    
+    /**
+     * Waits for the head of a type to finish a batch it took a job into, and
+     * hands back the job
+     * 
+     * @param jobID the unique id of the job
+     * @param slot where the batch leaves the job
+     * @param enqueued System.nanoTime when the job was queued
+     * @return a BaseJob that has had its computation run to completion
+     * @throws RemoteException thrown if the job cannot be rescheduled
+     * @throws NotBoundException thrown if the JobScheduler is no longer bound
+     */
+    private BaseJob awaitBatch(long jobID, BatchSlot slot, long enqueued) 
+            throws RemoteException,NotBoundException{
+        
+        while( slot.done.getCount() > 0 ) {
+            
+            try {
+                slot.done.await();
+            } catch (InterruptedException ex) { }
+        }
+        batchSlots.remove(jobID);
+        
+        if( slot.error != null ) {
+            
+            throw slot.error;
+        }
+        
+        BaseJob job = slot.result != null ? slot.result : slot.job;
+        job.setQueueWait(job.getQueueWait() + slot.taken - enqueued);
+        
+        //Batch failed, only resend jobs someone is still waiting for
+        if( slot.result == null ) {
+            
+            if( job.isCancelled() || job.isExpired() ) {
+                
+                return dropJob(job);
+            }
+            retry(job);
+            return schedule(job, true);
+        }
+        return rethrow(job);
+    }
+    
+    /**
+     * Sends the event for a job that came back from a ComputeServer
+     * 
+     * @param job the job as it came back
+     * @param serverName the name of the server that ran it
+     */
+    private void reportDone(BaseJob job, String serverName) {
+        
+        //Interrupted on the server by cancel or by its deadline
+        if( job.isCancelled() ) {
+            
+            eventGenerator.reportEvent( new JobSchedulerEvent("Job " + 
+                    job.getName() + " cancelled on " + serverName));
+            return;
+        }
+        
+        eventGenerator.reportEvent( new JobSchedulerEvent("Job " + 
+                job.getName() + " finished on " + serverName));
+    }
+    
+    /**
+     * Passes on the failure of a job that failed in a batch the way it would
+     * have been passed on had the job been sent alone
+     * 
+     * @param job the job as it came back
+     * @return the job, if it did not fail
+     */
+    private static BaseJob rethrow(BaseJob job) {
+        
+        if( job.getFailure() != null ) {
+            
+            throw job.getFailure();
+        }
+        return job;
+    }
+    
+    /**
+     * Wakes the thread waiting for the head of a type
+     * 
+     * @param type the job type
+     */
+    private void wakeHead(String type) {
+        
+        wake(requestQueue.peek(type));
+    }
+    
+    /**
+     * Wakes the thread waiting for a job
+     * 
+     * @param jobID the unique id of the job, or 0 for none
+     */
+    private void wake(long jobID) {
+        
+        Thread waiter = waiters.get(jobID);
+        if( waiter != null ) {
+            
+            LockSupport.unpark(waiter);
+        }
+    }
+    
+    /**
+     * Takes a job out of the queue
+     * 
+     * @param jobID the unique id of the job
+     * @return the job, marked cancelled if it was cancelled while queued
+     * @throws RemoteException thrown if the queued job cannot be read back
+     */
+    private BaseJob takeJob(long jobID) throws RemoteException {
+        
+        try {
+            return requestQueue.take(jobID);
+        } catch (IOException e) {
+            throw new RemoteException("JobScheduler: Unable to read queued "
+                    + "job", e);
+        }
+    }
+    
+    /**
+     * Takes a cancelled or expired job out of the queue and marks it 
+     * cancelled so it can be returned to the client as is
+     * 
+     * @param jobID the unique id of the job
+     * @param type the type of the job
+     * @return the job, marked cancelled, or null if the job was taken into a
+     *         batch instead
+     * @throws RemoteException thrown if the queued job cannot be read back
+     */
+    private BaseJob dropJob(long jobID, String type) throws RemoteException {
+        
+        BaseJob job;
+        synchronized(requestQueue) {
+            
+            if( batchSlots.containsKey(jobID) ) {
+                
+                return null;
+            }
+            job = takeJob(jobID);
+        }
+        wakeHead(type);
+        return dropJob(job);
+    }
+    
+    /**
+     * Marks a job that left the queue cancelled so it can be returned to the
+     * client as is
+     * 
+     * @param job the BaseJob being dropped
+     * @return the same job, marked cancelled
+     */
+    private BaseJob dropJob(BaseJob job) {
+        
+        job.setCancelled(true);
+        eventGenerator.reportEvent( new JobSchedulerEvent("Job " + 
+                job.getName() + " cancelled"));
+        
+        if( tracer != null ) {
+            
+            mark(job, TraceContext.RETURN, TraceContext.now());
+            tracer.export(job, null);
+        }
+        return job;
+    }
+    
+    /**
+     * Stamps a stage on the trace of a job, if it is traced
+     * 
+     * @param job the job
+     * @param stage the stage reached
+     * @param time nanoseconds since the epoch, from TraceContext.now
+     */
+    private static void mark(BaseJob job, int stage, long time) {
+        
+        if( job.getTrace() != null ) {
+            
+            job.getTrace().mark(stage, time);
+        }
+    }
+    
+    /**
+     * Counts a resend on the trace of a job, if it is traced
+     * 
+     * @param job the job being resent after a failure
+     */
+    private static void retry(BaseJob job) {
+        
+        if( job.getTrace() != null ) {
+            
+            job.getTrace().retry();
+        }
+    }
+    
+    /**
+     * Determines if a deadline has passed
+     * 
+     * @param deadline time in milliseconds since the epoch, or 0 for none
+     * @return true if there is a deadline and it has passed
+     */
+    private static boolean isExpired(long deadline) {
+        
+        return deadline != 0 && System.currentTimeMillis() > deadline;
+    }
+    
+    /**
+     * Allows registration of a ComputeServer object with the 
+     * JobScheduler object
+     * 
+     * @param serverRef a ComputeServerInterface object that is a reference to a
+     *                  ComputeServer object running remotely elsewhere
+     * @return true if the service is performed
+     * @throws RemoteException if there is a problem contacting the JobScheduler
+     */
+    @Override
+    public boolean registerServer(ComputeServerInterface serverRef) 
+            throws RemoteException {
+        
+        return registerServer(serverRef, "*:1:0");
+    }
+    
+    /**
+     * Allows registration of a ComputeServer object along with the pools it
+     * runs jobs on
+     * 
+     * A server that registers again replaces its old record, which also
+     * takes it out of draining
+     * 
+     * @param serverRef a ComputeServerInterface object that is a reference to a
+     *                  ComputeServer object running remotely elsewhere
+     * @param pools the comma separated pool specs of the server
+     * @return true if the service is performed
+     * @throws RemoteException if there is a problem contacting the JobScheduler
+     */
+    @Override
+    public boolean registerServer(ComputeServerInterface serverRef, 
+            String pools) throws RemoteException {
+        
+        ServerRecord record;
+        try {
+            record = new ServerRecord(serverRef, pools);
+        } catch (IllegalArgumentException e) {
+            throw new RemoteException("JobScheduler: " + e.getMessage());
+        }
+        
+        synchronized(this) {
+            
+            ServerRecord old = findServer(serverRef);
+            if( old != null ) {
+                
+                availServerList.remove(old);
+            }
+            availServerList.add(record);
+        }
+        wakeServerWaiters();
+        return true;
+    }
+    
+    /**
+     * Stops sending new jobs to a ComputeServer, jobs it already has are
+     * left to finish
+     * 
+     * @param serverRef a reference to the ComputeServer
+     * @return true if the server was registered
+     * @throws RemoteException if there is a problem contacting the JobScheduler
+     */
+    @Override
+    public boolean drainServer(ComputeServerInterface serverRef) 
+            throws RemoteException {
+        
+        ServerRecord record = findServer(serverRef);
+        if( record == null ) {
+            
+            return false;
+        }
+        record.setDraining(true);
+        return true;
+    }
+    
+    /**
+     * Forgets a ComputeServer
+     * 
+     * @param serverRef a reference to the ComputeServer
+     * @return true if the server was registered
+     * @throws RemoteException if there is a problem contacting the JobScheduler
+     */
+    @Override
+    public boolean deregisterServer(ComputeServerInterface serverRef) 
+            throws RemoteException {
+        
+        synchronized(this) {
+            
+            ServerRecord record = findServer(serverRef);
+            return record != null && availServerList.remove(record);
+        }
+    }
+    
+    /**
+     * Allows registration of a RemoteEventListner object from Logger with the 
+     * JobScheduler object
+     * 
+     * Events reach the listener through a local forwarder, which forgets the
+     * listener as soon as it cannot be reached, so snapshots only carry
+     * Loggers that are still there.
+     * 
+     * @param listener a RemoteEventListener object that will need to be
+     *                 broadcast to when certain events happen
+     * @return a Lease object to the calling Object
+     * @throws RemoteException if there is a problem contacting the JobScheduler
+     */
+    @Override
+    public Lease registerLogger(
+            final RemoteEventListener<JobSchedulerEvent> listener) 
+            throws RemoteException {
+        
+        registeredLoggers.add(listener);
+        try {
+            return eventGenerator.addListener(
+                    new RemoteEventListener<JobSchedulerEvent>() {
+                
+                @Override
+                public void report(long seq, JobSchedulerEvent event) 
+                        throws RemoteException {
+                    
+                    try {
+                        listener.report(seq, event);
+                    } catch (RemoteException e) {
+                        registeredLoggers.remove(listener);
+                        throw e; // The generator drops the forwarder
+                    }
+                }
+            });
+        } catch (RemoteException e) {
+            registeredLoggers.remove(listener);
+            throw e;
+        }
+    }
+    
+    /**
+     * Cancels a job that is waiting in the queue or running on a ComputeServer
+     * 
+     * A queued job is dropped right away.  A running job is interrupted on
+     * its ComputeServer and stops as soon as its computation notices.
+     * 
+     * @param jobID the unique id of the job to cancel
+     * @return true if the job was found, false if it is unknown or done
+     * @throws RemoteException if there is a problem contacting the JobScheduler
+     */
+    @Override
+    public boolean cancel(long jobID) throws RemoteException {
+        
+        BaseJob job;
+        boolean queued;
+        synchronized(requestQueue) {
+            
+            queued = requestQueue.cancel(jobID);
+            job = dispatchedJobs.get(jobID);
+        }
+        
+        //Still queued, its thread drops it and wakes the next of its type
+        if( queued ) {
+            
+            wake(jobID);
+            return true;
+        }
+        
+        if( job == null ) {
+            
+            return false;
+        }
+        job.setCancelled(true);
+        
+        ComputeServerInterface server = runningJobs.get(jobID);
+        if( server != null ) {
+            
+            try {
+                server.cancelJob(jobID);
+            } catch (RemoteException e) { } // Server is gone, job with it
+        }
+        return true;
+    }
+    
+    /**
+     * Issues a job ID for a client that wants to know it before calling doJob
+     * 
+     * @return a new unique job ID
+     * @throws RemoteException if there is a problem contacting the JobScheduler
+     */
+    @Override
+    public long newJobID() throws RemoteException {
+        
+        return idService.nextID();
+    }
+    
+    /**
+     * Answers a standby checking that this JobScheduler is still there
+     * 
+     * @throws RemoteException if there is a problem contacting the JobScheduler
+     */
+    @Override
+    public void ping() throws RemoteException { }
+    
+    /**
+     * Passes partial results of a StreamingJob on to the client that
+     * submitted it
+     * 
+     * Results for jobs that are no longer here, or whose client can no longer
+     * be reached, are dropped, as are results the client already has from
+     * an earlier run of a resent job
+     * 
+     * @param event a JobResultEvent holding a batch of results
+     * @throws RemoteException if there is a problem contacting the JobScheduler
+     */
+    @Override
+    public void reportResult(JobResultEvent event) throws RemoteException {
+        
+        RemoteEventListener<JobResultEvent> listener = 
+                resultListeners.get(event.jobID);
+        
+        if( listener == null ) {
+            
+            return;
+        }
+        
+        //Sent again by a job that was resent, pass on only what is new
+        Long seen = resultsDelivered.get(event.jobID);
+        long delivered = seen != null ? seen : 0;
+        if( event.sequence < delivered ) {
+            
+            long skip = delivered - event.sequence;
+            if( skip >= event.results.length ) {
+                
+                return;
+            }
+            Serializable[] results = Arrays.copyOfRange(event.results, 
+                    (int) skip, event.results.length);
+            event = new JobResultEvent(event.jobID, delivered, results);
+        }
+        
+        try {
+            listener.report(event.sequence, event);
+            resultsDelivered.put(event.jobID, 
+                    Math.max(delivered, event.sequence + event.results.length));
+        } catch (RemoteException e) {
+            resultListeners.remove(event.jobID); // Client is gone
+        }
+    }
+    
+    /**
+     * Keeps the latest progress of a running Checkpointable job with the
+     * dispatched job, so it is resent with it if its ComputeServer fails
+     * 
+     * Checkpoints for jobs that are no longer running here are dropped, as
+     * are checkpoints that count results a listening client has not been
+     * given, since a job resumed from one would never send those results
+     * 
+     * @param checkpoint the Checkpoint of the job
+     * @throws RemoteException if there is a problem contacting the JobScheduler
+     */
+    @Override
+    public void reportCheckpoint(Checkpoint checkpoint) 
+            throws RemoteException {
+        
+        Long seen = resultsDelivered.get(checkpoint.jobID);
+        long delivered = seen != null ? seen : 0;
+        BaseJob job = dispatchedJobs.get(checkpoint.jobID);
+        boolean listening = resultListeners.containsKey(checkpoint.jobID);
+        if( job != null && (checkpoint.results <= delivered || !listening) ) {
+            
+            job.setCheckpoint(checkpoint);
+        }
+    }
+    
+    /**
+     * Class Run is the run of a job in progress here, which a client that
+     * sends the job again waits on instead of running it a second time
+     */
+    private static class Run {
+        
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile BaseJob result = null;
+        volatile Exception error = null;
+        
+        /**
+         * Waits for the run to end and hands back how it went
+         * 
+         * @return the job after completion
+         * @throws RemoteException thrown if the run failed, or with the
+         *                         failure of the run
+         * @throws NotBoundException thrown if the run found the JobScheduler
+         *                           unbound
+         */
+        BaseJob await() throws RemoteException,NotBoundException{
+            
+            while( done.getCount() > 0 ) {
+                
+                try {
+                    done.await();
+                } catch (InterruptedException ex) { }
+            }
+            
+            if( result != null ) {
+                
+                return result;
+            }
+            if( error instanceof RemoteException ) {
+                
+                throw (RemoteException) error;
+            }
+            if( error instanceof NotBoundException ) {
+                
+                throw (NotBoundException) error;
+            }
+            if( error instanceof RuntimeException ) {
+                
+                throw (RuntimeException) error;
+            }
+            throw new RemoteException("JobScheduler: Job failed");
+        }
+    }
+    
+    /**
+     * Class BatchSlot is where the head of a type leaves a job it took into a
+     * batch for the thread waiting on that job
+     */
+    private static class BatchSlot {
+        
+        final long key;
+        final long taken;
+        final CountDownLatch done = new CountDownLatch(1);
+        BaseJob job = null;
+        BaseJob result = null;
+        RemoteException error = null;
+        
+        /**
+         * Constructor taking the job and when it left the queue
+         * 
+         * @param key the unique id of the job
+         * @param taken System.nanoTime when the job was taken
+         */
+        BatchSlot(long key, long taken) {
+            
+            this.key = key;
+            this.taken = taken;
+        }
+        
+        /**
+         * Hands the job back to its waiting thread, only the first call has
+         * any effect
+         * 
+         * @param result the job after completion, or null if the batch
+         *               failed and the job must be resent
+         */
+        void finish(BaseJob result) {
+            
+            if( done.getCount() > 0 ) {
+                
+                this.result = result;
+                done.countDown();
+            }
+        }
     }
 }
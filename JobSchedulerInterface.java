@@ -39,6 +39,44 @@ public interface JobSchedulerInterface extends java.rmi.Remote {
      *                         most likely the server is down
      */
     boolean registerServer(ComputeServerInterface serverRef) throws RemoteException;
+    
+    /**
+     * Function to register a ComputeServer along with the pools it runs jobs
+     * on, which tell the JobScheduler how many jobs of each type it can send
+     * 
+     * @param serverRef a ComputeServerInterface object that is a reference
+     *                  to the ComputerServer that calls the function
+     * @param pools the comma separated pool specs of the server, each of the
+     *              form type:threads:queue[:cpus]
+     * @return true if a connection is made
+     * @throws RemoteException thrown if an error occurs attempting to register
+     *                         most likely the server is down
+     */
+    boolean registerServer(ComputeServerInterface serverRef, String pools) 
+            throws RemoteException;
+    
+    /**
+     * Function for a ComputeServer to stop getting new jobs before it shuts
+     * down, jobs it already has still finish
+     * 
+     * @param serverRef the reference the ComputeServer registered with
+     * @return true if the server was registered
+     * @throws RemoteException thrown if an error occurs attempting to contact
+     *                         the JobScheduler
+     */
+    boolean drainServer(ComputeServerInterface serverRef) 
+            throws RemoteException;
+    
+    /**
+     * Function for a ComputeServer to leave the JobScheduler
+     * 
+     * @param serverRef the reference the ComputeServer registered with
+     * @return true if the server was registered
+     * @throws RemoteException thrown if an error occurs attempting to contact
+     *                         the JobScheduler
+     */
+    boolean deregisterServer(ComputeServerInterface serverRef) 
+            throws RemoteException;
         
     /**
      * Function to send a RemoteEventListener to the JobScheduler
@@ -52,4 +90,63 @@ public interface JobSchedulerInterface extends java.rmi.Remote {
      */
     Lease registerLogger(RemoteEventListener<JobSchedulerEvent> listener) 
             throws RemoteException;
+    
+    /**
+     * Function to cancel a job that was sent with doJob
+     * 
+     * A queued job is dropped, a running job is interrupted on its
+     * ComputeServer.  Either way doJob returns the job marked cancelled.
+     * 
+     * @param jobID the unique id the job was sent with
+     * @return true if the job was found and cancelled
+     * @throws RemoteException thrown if an error occurs attempting to contact
+     *                         the JobScheduler
+     */
+    boolean cancel(long jobID) throws RemoteException;
+    
+    /**
+     * Function to get a job ID before sending the job with doJob
+     * 
+     * Only needed by clients that want to know the ID of their job while
+     * doJob is still running, for instance to cancel it.  doJob gives jobs
+     * without an ID one of its own.
+     * 
+     * @return a new unique job ID
+     * @throws RemoteException thrown if an error occurs attempting to contact
+     *                         the JobScheduler
+     */
+    long newJobID() throws RemoteException;
+    
+    /**
+     * Function that does nothing, for a standby to check that the
+     * JobScheduler still answers
+     * 
+     * @throws RemoteException thrown if an error occurs attempting to contact
+     *                         the JobScheduler
+     */
+    void ping() throws RemoteException;
+    
+    /**
+     * Function for a ComputeServer to hand partial results of a StreamingJob
+     * to the JobScheduler, which passes them on to the client
+     * 
+     * Does not return until the client has received the results, which is
+     * what keeps a fast job from outrunning a slow client
+     * 
+     * @param event a JobResultEvent holding a batch of results
+     * @throws RemoteException thrown if an error occurs attempting to contact
+     *                         the JobScheduler
+     */
+    void reportResult(JobResultEvent event) throws RemoteException;
+    
+    /**
+     * Function for a ComputeServer to hand the saved progress of a running
+     * Checkpointable job to the JobScheduler, which resends the job with it
+     * if the server fails
+     * 
+     * @param checkpoint the Checkpoint of the job
+     * @throws RemoteException thrown if an error occurs attempting to contact
+     *                         the JobScheduler
+     */
+    void reportCheckpoint(Checkpoint checkpoint) throws RemoteException;
 }
@@ -0,0 +1,128 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class LatencyHistogram counts latency values in log-linear buckets, in the
+ * manner of HdrHistogram
+ * 
+ * Every power of two range is split into 64 equal buckets, so any value is
+ * reported to within about 1.6% no matter how large it is, and the whole
+ * histogram is a fixed array of counters.  Recording is thread safe and
+ * lock free.
+ *
+ * @author Matt Au
+ */
+public class LatencyHistogram {
+    
+    // Hidden data members
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    
+    private final AtomicLongArray counts = 
+            new AtomicLongArray((64 - SUB_BITS + 1) * SUB_COUNT);
+    
+    /**
+     * Records one value
+     * 
+     * @param value the value, negative values count as 0
+     */
+    public void recordValue(long value) {
+        
+        counts.incrementAndGet(indexOf(Math.max(0, value)));
+    }
+    
+    /**
+     * Accessor for the number of values recorded
+     * 
+     * @return the total count
+     */
+    public long getCount() {
+        
+        long total = 0;
+        for(int i = 0; i < counts.length(); i++) {
+            
+            total += counts.get(i);
+        }
+        return total;
+    }
+    
+    /**
+     * Finds the value at a percentile
+     * 
+     * @param percentile the percentile, 0 to 100
+     * @return the highest value of the bucket holding the percentile, or 0
+     *         if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        
+        long total = getCount();
+        if(total == 0) {
+            
+            return 0;
+        }
+        
+        long wanted = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++) {
+            
+            seen += counts.get(i);
+            if(seen >= wanted) {
+                
+                return highestValueOf(i);
+            }
+        }
+        return highestValueOf(counts.length() - 1);
+    }
+    
+    /**
+     * Finds the largest value recorded
+     * 
+     * @return the highest value of the highest bucket used, or 0
+     */
+    public long getMax() {
+        
+        for(int i = counts.length() - 1; i >= 0; i--) {
+            
+            if(counts.get(i) > 0) {
+                
+                return highestValueOf(i);
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Finds the bucket of a value
+     * 
+     * @param value a value of 0 or more
+     * @return index into counts
+     */
+    private static int indexOf(long value) {
+        
+        if(value < SUB_COUNT) {
+            
+            return (int) value;
+        }
+        
+        //Shift so the value lands between SUB_COUNT and 2 * SUB_COUNT
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS - 1;
+        return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+    }
+    
+    /**
+     * Finds the highest value that falls in a bucket
+     * 
+     * @param index index into counts
+     * @return the highest value of the bucket
+     */
+    private static long highestValueOf(int index) {
+        
+        if(index < SUB_COUNT) {
+            
+            return index;
+        }
+        
+        int shift = index / SUB_COUNT - 1;
+        long low = (long) (index % SUB_COUNT + SUB_COUNT) << shift;
+        return low + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,414 @@
+import edu.rit.ds.registry.NotBoundException;
+import edu.rit.ds.registry.RegistryProxy;
+import java.math.BigInteger;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class LoadGenerator drives a JobScheduler with a stream of GcdJob,
+ * PrimalityJob and SyntheticJob requests from a single JVM and reports
+ * throughput and latency
+ * 
+ * GcdJob and PrimalityJob sleep 10 seconds each, so a mix of them tests the
+ * scheduler at a few jobs per second per server at most.  A SyntheticJob
+ * takes as many milliseconds as its mix entry says, down to none, so the
+ * service time can be set to what is being tested.
+ * 
+ * In open mode jobs arrive at a fixed rate whether or not earlier jobs have
+ * finished, sent by a fixed pool of threads.  A job that finds every sender
+ * busy waits for one, and the wait counts in its latency.  In closed mode a
+ * fixed number of clients each send a job and wait for it; given a rate,
+ * each client paces itself to its share of it.
+ * 
+ * Latency is measured from the time a job was meant to be sent, not from
+ * when it actually was, so a stalled scheduler shows up as the whole backlog
+ * of late jobs rather than a single slow one (no coordinated omission).
+ * Queue wait is the time the JobScheduler reports the job spent queued.
+ * 
+ * Optionally a JobScheduler and a number of ComputeServers are started in
+ * this JVM first.  A registry must already be running on host and port.
+ *
+ * @author Matt Au
+ */
+public class LoadGenerator {
+    
+    // Hidden data members
+    private final JobSchedulerInterface jobSched;
+    private final ArrayList<String> mixTypes = new ArrayList<String>();
+    private final ArrayList<Integer> mixWeights = new ArrayList<Integer>();
+    private final ArrayList<Long> mixMillis = new ArrayList<Long>();
+    private int totalWeight = 0;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    
+    /**
+     * Constructor taking the scheduler to load and the job mix
+     * 
+     * @param jobSched the JobScheduler to send jobs to
+     * @param mix comma separated type:weight pairs, types being GCD,
+     *            Primality and Synthetic-ms where ms is the compute time in
+     *            milliseconds, for example GCD:3,Primality:1,Synthetic-5:20
+     */
+    public LoadGenerator(JobSchedulerInterface jobSched, String mix) {
+        
+        this.jobSched = jobSched;
+        
+        String[] entries = mix.split(",");
+        for(int i = 0; i < entries.length; i++) {
+            
+            String[] parts = entries[i].split(":");
+            String type = parts[0];
+            long millis = 0;
+            
+            //Synthetic job with its compute time
+            boolean synthetic = type.startsWith("Synthetic-");
+            if(synthetic) {
+                
+                try {
+                    millis = Long.parseLong(type.substring(10));
+                } catch (NumberFormatException e) {
+                    millis = -1;
+                }
+                type = "Synthetic";
+            }
+            
+            //Unknown job type or invalid compute time
+            if(parts.length != 2 || millis < 0 || !(type.equals("GCD") 
+                    || type.equals("Primality") || synthetic)) {
+                
+                throw new IllegalArgumentException("LoadGenerator: Invalid "
+                        + "mix entry: " + entries[i]);
+            }
+            
+            //Invalid weight
+            int weight;
+            try {
+                weight = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("LoadGenerator: Invalid "
+                        + "mix entry: " + entries[i]);
+            }
+            mixTypes.add(type);
+            mixWeights.add(weight);
+            mixMillis.add(millis);
+            totalWeight += weight;
+        }
+        
+        if(totalWeight <= 0) {
+            
+            throw new IllegalArgumentException("LoadGenerator: Mix has no "
+                    + "weight: " + mix);
+        }
+    }
+    
+    /**
+     * Sends jobs at a fixed rate from a pool of threads, for a duration
+     * 
+     * Each job is timed from when it was due, so a job held up waiting for a
+     * free sender is not let off the time it waited.
+     * 
+     * @param rate jobs per second
+     * @param senders the number of threads sending jobs, which is the most
+     *                jobs that can be in flight at once
+     * @param seconds how long to keep sending
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    public void runOpen(double rate, int senders, int seconds) 
+            throws InterruptedException {
+        
+        long interval = (long) (1e9 / rate);
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        ExecutorService pool = Executors.newFixedThreadPool(senders);
+        
+        for(long intended = start; intended < end; intended += interval) {
+            
+            sleepUntil(intended);
+            final long due = intended;
+            pool.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    
+                    send(due);
+                }
+            });
+        }
+        
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Runs a number of clients that each send a job and wait for it, for a
+     * duration
+     * 
+     * @param clients the number of clients
+     * @param rate total jobs per second to pace the clients to, or 0 to send
+     *             each job as soon as the last one is done
+     * @param seconds how long to keep sending
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    public void runClosed(int clients, double rate, int seconds) 
+            throws InterruptedException {
+        
+        final long interval = rate > 0 ? (long) (1e9 * clients / rate) : 0;
+        final long start = System.nanoTime();
+        final long end = start + seconds * 1000000000L;
+        Thread[] workers = new Thread[clients];
+        
+        for(int i = 0; i < clients; i++) {
+            
+            //Spread paced clients over one interval
+            final long offset = interval * i / clients;
+            workers[i] = new Thread(new Runnable() {
+                
+                @Override
+                public void run() {
+                    
+                    long intended = start + offset;
+                    while(intended < end) {
+                        
+                        sleepUntil(intended);
+                        send(intended);
+                        intended = interval > 0 ? 
+                                intended + interval : System.nanoTime();
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        
+        for(int i = 0; i < clients; i++) {
+            
+            workers[i].join();
+        }
+    }
+    
+    /**
+     * Sends one job and records how it went
+     * 
+     * @param intended System.nanoTime the job was meant to be sent at
+     */
+    private void send(long intended) {
+        
+        BaseJob job = newJob(sent.incrementAndGet());
+        try {
+            BaseJob result = jobSched.doJob(job, false);
+            endToEnd.recordValue(System.nanoTime() - intended);
+            queueWait.recordValue(result.getQueueWait());
+            
+            if(result.isCancelled()) {
+                
+                cancelled.incrementAndGet();
+            }
+            else {
+                
+                completed.incrementAndGet();
+            }
+        } catch (RemoteException e) {
+            failed.incrementAndGet();
+        } catch (NotBoundException e) {
+            failed.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Builds a job of a type drawn from the mix, on random numbers
+     * 
+     * @param n sequence number used to name the job
+     * @return a new job
+     */
+    private BaseJob newJob(long n) {
+        
+        Random random = new Random();
+        int pick = random.nextInt(totalWeight);
+        int i = 0;
+        while(pick >= mixWeights.get(i)) {
+            
+            pick -= mixWeights.get(i);
+            i++;
+        }
+        
+        BaseJob job;
+        if(mixTypes.get(i).equals("GCD")) {
+            
+            job = new GcdJob(new BigInteger(64, random), 
+                    new BigInteger(64, random));
+        }
+        else if(mixTypes.get(i).equals("Primality")) {
+            
+            job = new PrimalityJob(new BigInteger(64, random));
+        }
+        else {
+            
+            job = new SyntheticJob(mixMillis.get(i));
+        }
+        job.setType(mixTypes.get(i));
+        job.setName("load-" + n);
+        return job;
+    }
+    
+    /**
+     * Prints throughput and latency percentiles
+     * 
+     * @param seconds the length of the run
+     */
+    public void report(double seconds) {
+        
+        System.out.printf("%d sent, %d completed, %d cancelled, %d failed "
+                + "in %.1f s, %.2f jobs/s%n", sent.get(), completed.get(), 
+                cancelled.get(), failed.get(), seconds, 
+                completed.get() / seconds);
+        System.out.printf("%-12s %10s %10s %10s %10s %10s %10s%n", "(ms)", 
+                "p50", "p90", "p99", "p99.9", "p99.99", "max");
+        printRow("end-to-end", endToEnd);
+        printRow("queue wait", queueWait);
+    }
+    
+    /**
+     * Prints the percentiles of one histogram
+     * 
+     * @param label the name of the row
+     * @param histogram latencies in nanoseconds
+     */
+    private static void printRow(String label, LatencyHistogram histogram) {
+        
+        System.out.printf("%-12s %10.2f %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+                label, histogram.getValueAtPercentile(50) / 1e6, 
+                histogram.getValueAtPercentile(90) / 1e6, 
+                histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getValueAtPercentile(99.9) / 1e6, 
+                histogram.getValueAtPercentile(99.99) / 1e6, 
+                histogram.getMax() / 1e6);
+    }
+    
+    /**
+     * Waits until a point in time
+     * 
+     * @param nanos a System.nanoTime value
+     */
+    private static void sleepUntil(long nanos) {
+        
+        long left;
+        while((left = nanos - System.nanoTime()) > 0) {
+            
+            LockSupport.parkNanos(left);
+        }
+    }
+    
+    /**
+     * Main function
+     * Starts the optional in-process JobScheduler and ComputeServers, looks
+     * up the JobScheduler, runs the load and prints the report
+     * 
+     * @param args Command line input should be: 
+     *             host port jobschedulername open|closed rate clients seconds
+     *             mix [servers]
+     *             where rate is jobs per second (0 for unpaced closed mode),
+     *             clients is the number of clients in closed mode and of
+     *             sender threads in open mode, mix is as for the
+     *             constructor, and servers is the number of ComputeServers
+     *             to start in this JVM along with a JobScheduler
+     * @throws Exception Thrown if setup fails or the run is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        
+        // Invalid argument length
+        if(args.length != 8 && args.length != 9) {
+            
+            throw new IllegalArgumentException("Proper execution: java "
+                    + "LoadGenerator <host> <port> <jsname> <open|closed> "
+                    + "<rate> <clients> <seconds> <mix> [<servers>]");
+        }
+        
+        String host = args[0];
+        int port;
+        double rate;
+        int clients;
+        int seconds;
+        int servers = 0;
+        
+        //Invalid numbers
+        try {
+            port = Integer.parseInt(args[1]);
+            rate = Double.parseDouble(args[4]);
+            clients = Integer.parseInt(args[5]);
+            seconds = Integer.parseInt(args[6]);
+            if(args.length == 9) {
+                
+                servers = Integer.parseInt(args[8]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("LoadGenerator: Invalid "
+                    + "number in input");
+        }
+        
+        boolean open = args[3].equals("open");
+        if(!open && !args[3].equals("closed")) {
+            
+            throw new IllegalArgumentException("LoadGenerator: Invalid mode: "
+                    + args[3]);
+        }
+        if(clients < 1 || (open && rate <= 0)) {
+            
+            throw new IllegalArgumentException("LoadGenerator: Both modes "
+                    + "need clients, open mode needs a rate");
+        }
+        
+        //Local scheduler and servers for a single box test
+        if(servers > 0) {
+            
+            new JobScheduler(new String[] {args[0], args[1], args[2]});
+            for(int i = 0; i < servers; i++) {
+                
+                new ComputeServer(new String[] {args[0], args[1], args[2], 
+                        "load-cs-" + i});
+            }
+        }
+        
+        RegistryProxy proxyBot = null;
+        //Unreachable host
+        try {
+            proxyBot = new RegistryProxy(host, port);
+        } catch (RemoteException e) {
+            throw new RemoteException("Host unreachable or "
+                    + "invalid host name/port");
+        }
+        
+        JobSchedulerInterface jobSched;
+        
+        //Improper JobScheduler name
+        try {
+            jobSched = (JobSchedulerInterface) proxyBot.lookup(args[2]);            
+        } catch (NotBoundException e) {
+            throw new RemoteException ("LoadGenerator(): Unable to find job "
+                    + "scheduler " + args[2]);
+        }
+        
+        LoadGenerator generator = new LoadGenerator(jobSched, args[7]);
+        long start = System.nanoTime();
+        if(open) {
+            
+            generator.runOpen(rate, clients, seconds);
+        }
+        else {
+            
+            generator.runClosed(clients, rate, seconds);
+        }
+        generator.report((System.nanoTime() - start) / 1e9);
+        
+        //Exported servers would keep the JVM running
+        System.exit(0);
+    }
+}
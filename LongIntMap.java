@@ -0,0 +1,197 @@
+import java.util.Arrays;
+
+/**
+ * Class LongIntMap is a hash map from long keys to int values that stores
+ * both in primitive arrays
+ * 
+ * It uses open addressing with linear probing, so an entry costs 12 bytes in
+ * the arrays and no objects at all.  The key 0 is reserved to mark empty
+ * slots and cannot be stored.  This class is not thread safe.
+ *
+ * @author Matt Au
+ */
+public class LongIntMap {
+    
+    // Hidden data members
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+    private int mask;
+    
+    /**
+     * Constructor taking the number of entries expected
+     * 
+     * @param expected number of entries the map should hold before growing
+     */
+    public LongIntMap(int expected) {
+        
+        int capacity = 16;
+        while(capacity * 3 / 4 < expected) {
+            
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+    
+    /**
+     * Accessor for the value stored under a key
+     * 
+     * @param key a non-zero key
+     * @return the value for the key, or -1 if there is none
+     */
+    public int get(long key) {
+        
+        int i = slot(key);
+        while(keys[i] != 0) {
+            
+            if(keys[i] == key) {
+                
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+    
+    /**
+     * Stores a value under a key, replacing any value already there
+     * 
+     * @param key a non-zero key
+     * @param value the value to store
+     */
+    public void put(long key, int value) {
+        
+        if(key == 0) {
+            
+            throw new IllegalArgumentException("LongIntMap: Key 0 is "
+                    + "reserved");
+        }
+        
+        int i = slot(key);
+        while(keys[i] != 0) {
+            
+            if(keys[i] == key) {
+                
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        
+        if(size > keys.length * 3 / 4) {
+            
+            resize(keys.length << 1);
+        }
+    }
+    
+    /**
+     * Removes a key and its value
+     * 
+     * @param key a non-zero key
+     * @return the value that was stored, or -1 if there was none
+     */
+    public int remove(long key) {
+        
+        int i = slot(key);
+        while(keys[i] != 0) {
+            
+            if(keys[i] == key) {
+                
+                int value = values[i];
+                shiftBack(i);
+                size--;
+                return value;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+    
+    /**
+     * Removes every entry
+     */
+    public void clear() {
+        
+        Arrays.fill(keys, 0L);
+        size = 0;
+    }
+    
+    /**
+     * Accessor for size
+     * 
+     * @return the number of entries in the map
+     */
+    public int size() {
+        
+        return size;
+    }
+    
+    /**
+     * Finds the home slot of a key
+     * 
+     * @param key the key to hash
+     * @return index of the first slot to probe
+     */
+    private int slot(long key) {
+        
+        long h = key * 0x9E3779B97F4A7C15L; // Spread sequential keys
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+    
+    /**
+     * Fills the hole left by a removed entry by moving later entries of the
+     * same probe run back, so lookups never need tombstones
+     * 
+     * @param hole index of the slot that was emptied
+     */
+    private void shiftBack(int hole) {
+        
+        int i = hole;
+        while(true) {
+            
+            i = (i + 1) & mask;
+            if(keys[i] == 0) {
+                
+                break;
+            }
+            
+            //Entry can move into the hole if the hole lies on its probe path
+            int home = slot(keys[i]);
+            if(((i - home) & mask) >= ((i - hole) & mask)) {
+                
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = 0;
+    }
+    
+    /**
+     * Moves every entry into larger arrays
+     * 
+     * @param capacity new number of slots, a power of two
+     */
+    private void resize(int capacity) {
+        
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+        
+        for(int i = 0; i < oldKeys.length; i++) {
+            
+            if(oldKeys[i] != 0) {
+                
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+import java.util.ArrayList;
+
+/**
+ * Class LongMap is a hash map from long keys to object values that keeps the
+ * keys in primitive arrays
+ * 
+ * It works like LongIntMap, with open addressing and linear probing, so a
+ * lookup by job ID boxes nothing and an entry costs a slot in two arrays
+ * rather than a node and a Long.  The key 0 is reserved to mark empty slots
+ * and cannot be stored.
+ * 
+ * The keys are spread over STRIPES tables, each locked on its own, so
+ * threads working on different keys seldom wait for each other.  A call
+ * locks one table at a time and never holds a lock while it calls out.
+ * 
+ * @author Matt Au
+ */
+public class LongMap<V> {
+    
+    // Hidden data members
+    private static final int STRIPES = 32;
+    private static final int STRIPE_SHIFT = 59; // Top 5 bits of the hash
+    
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    
+    /**
+     * Constructor taking the number of entries expected
+     * 
+     * @param expected number of entries the map should hold before growing
+     */
+    public LongMap(int expected) {
+        
+        for(int i = 0; i < STRIPES; i++) {
+            
+            stripes[i] = new Stripe(expected / STRIPES);
+        }
+    }
+    
+    /**
+     * Accessor for the value stored under a key
+     * 
+     * @param key a non-zero key
+     * @return the value for the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        
+        return (V) stripeOf(key).get(key);
+    }
+    
+    /**
+     * Determines whether a key has a value
+     * 
+     * @param key a non-zero key
+     * @return true if the key is in the map
+     */
+    public boolean containsKey(long key) {
+        
+        return stripeOf(key).get(key) != null;
+    }
+    
+    /**
+     * Stores a value under a key, replacing any value already there
+     * 
+     * @param key a non-zero key
+     * @param value the value to store, not null
+     * @return the value that was stored, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        
+        return (V) stripeOf(key).put(key, value, true, true);
+    }
+    
+    /**
+     * Stores a value under a key only if the key has none
+     * 
+     * @param key a non-zero key
+     * @param value the value to store, not null
+     * @return the value already stored, or null if this one was stored
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(long key, V value) {
+        
+        return (V) stripeOf(key).put(key, value, false, true);
+    }
+    
+    /**
+     * Stores a value under a key only if the key already has one
+     * 
+     * @param key a non-zero key
+     * @param value the value to store, not null
+     * @return the value that was replaced, or null if nothing was stored
+     */
+    @SuppressWarnings("unchecked")
+    public V replace(long key, V value) {
+        
+        return (V) stripeOf(key).put(key, value, true, false);
+    }
+    
+    /**
+     * Removes a key and its value
+     * 
+     * @param key a non-zero key
+     * @return the value that was stored, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        
+        return (V) stripeOf(key).remove(key);
+    }
+    
+    /**
+     * Copies out the values
+     * 
+     * Each table is copied under its own lock, so entries added or removed
+     * while the copy is made may or may not be in it
+     * 
+     * @return a list of the values in the map, which later changes to the
+     *         map do not affect
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayList<V> values() {
+        
+        ArrayList<V> list = new ArrayList<V>();
+        for( Stripe stripe : stripes ) {
+            
+            stripe.addValuesTo((ArrayList<Object>) list);
+        }
+        return list;
+    }
+    
+    /**
+     * Accessor for size
+     * 
+     * @return the number of entries in the map
+     */
+    public int size() {
+        
+        int size = 0;
+        for( Stripe stripe : stripes ) {
+            
+            size += stripe.size();
+        }
+        return size;
+    }
+    
+    /**
+     * Finds the table that holds a key
+     * 
+     * @param key the key
+     * @return the table for the key
+     */
+    private Stripe stripeOf(long key) {
+        
+        return stripes[(int) (spread(key) >>> STRIPE_SHIFT)];
+    }
+    
+    /**
+     * Mixes the bits of a key, so sequential keys land far apart
+     * 
+     * @param key the key to hash
+     * @return the mixed key
+     */
+    private static long spread(long key) {
+        
+        return key * 0x9E3779B97F4A7C15L;
+    }
+    
+    /**
+     * Class Stripe is one of the tables of a LongMap
+     * 
+     * All functions are synchronized on the table.
+     */
+    private static final class Stripe {
+        
+        private long[] keys;
+        private Object[] values;
+        private int size = 0;
+        private int mask;
+        
+        /**
+         * Constructor taking the number of entries expected
+         * 
+         * @param expected number of entries the table should hold before
+         *                 growing
+         */
+        Stripe(int expected) {
+            
+            int capacity = 16;
+            while(capacity * 3 / 4 < expected) {
+                
+                capacity <<= 1;
+            }
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+        
+        /**
+         * Accessor for the value stored under a key
+         * 
+         * @param key a non-zero key
+         * @return the value for the key, or null if there is none
+         */
+        synchronized Object get(long key) {
+            
+            int i = find(key);
+            return i >= 0 ? values[i] : null;
+        }
+        
+        /**
+         * Stores a value under a key
+         * 
+         * @param key a non-zero key
+         * @param value the value to store
+         * @param replace true to replace a value already stored
+         * @param add true to store the value if the key has none
+         * @return the value stored before, or null if there was none
+         */
+        synchronized Object put(long key, Object value, boolean replace,
+                boolean add) {
+            
+            int i = find(key);
+            if(i >= 0) {
+                
+                Object old = values[i];
+                if(replace) {
+                    
+                    values[i] = value;
+                }
+                return old;
+            }
+            
+            if(add) {
+                
+                insert(key, value);
+            }
+            return null;
+        }
+        
+        /**
+         * Removes a key and its value
+         * 
+         * @param key a non-zero key
+         * @return the value that was stored, or null if there was none
+         */
+        synchronized Object remove(long key) {
+            
+            int i = find(key);
+            if(i < 0) {
+                
+                return null;
+            }
+            
+            Object value = values[i];
+            shiftBack(i);
+            size--;
+            return value;
+        }
+        
+        /**
+         * Adds the values in the table to a list
+         * 
+         * @param list the list to add to
+         */
+        synchronized void addValuesTo(ArrayList<Object> list) {
+            
+            for(int i = 0; i < keys.length; i++) {
+                
+                if(keys[i] != 0) {
+                    
+                    list.add(values[i]);
+                }
+            }
+        }
+        
+        /**
+         * Accessor for size
+         * 
+         * @return the number of entries in the table
+         */
+        synchronized int size() {
+            
+            return size;
+        }
+        
+        /**
+         * Finds the slot holding a key
+         * 
+         * @param key the key to look for
+         * @return index of the slot, or -1 if the key is not in the table
+         */
+        private int find(long key) {
+            
+            int i = slot(key);
+            while(keys[i] != 0) {
+                
+                if(keys[i] == key) {
+                    
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+        
+        /**
+         * Stores a key that is not yet in the table
+         * 
+         * @param key a non-zero key
+         * @param value the value to store
+         */
+        private void insert(long key, Object value) {
+            
+            if(key == 0) {
+                
+                throw new IllegalArgumentException("LongMap: Key 0 is "
+                        + "reserved");
+            }
+            
+            int i = slot(key);
+            while(keys[i] != 0) {
+                
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+            
+            if(size > keys.length * 3 / 4) {
+                
+                resize(keys.length << 1);
+            }
+        }
+        
+        /**
+         * Finds the home slot of a key, from the low bits of its hash as
+         * the table was picked by the high ones
+         * 
+         * @param key the key to hash
+         * @return index of the first slot to probe
+         */
+        private int slot(long key) {
+            
+            long h = spread(key);
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+        
+        /**
+         * Fills the hole left by a removed entry by moving later entries of
+         * the same probe run back, so lookups never need tombstones
+         * 
+         * @param hole index of the slot that was emptied
+         */
+        private void shiftBack(int hole) {
+            
+            int i = hole;
+            while(true) {
+                
+                i = (i + 1) & mask;
+                if(keys[i] == 0) {
+                    
+                    break;
+                }
+                
+                //Entry can move into the hole if the hole is on its path
+                int home = slot(keys[i]);
+                if(((i - home) & mask) >= ((i - hole) & mask)) {
+                    
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = 0;
+            values[hole] = null;
+        }
+        
+        /**
+         * Moves every entry into larger arrays
+         * 
+         * @param capacity new number of slots, a power of two
+         */
+        private void resize(int capacity) {
+            
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+            size = 0;
+            
+            for(int i = 0; i < oldKeys.length; i++) {
+                
+                if(oldKeys[i] != 0) {
+                    
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+}
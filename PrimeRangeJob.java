@@ -0,0 +1,214 @@
+import edu.rit.ds.RemoteEventListener;
+import edu.rit.ds.registry.NotBoundException;
+import edu.rit.ds.registry.RegistryProxy;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * Class PrimeRangeJob is a job that extends StreamingJob
+ * This class consists of two BigIntegers that bound a range of numbers and a
+ * count of the primes found in that range
+ * 
+ * Each prime is emitted as soon as it is found, so the client starts printing
+ * primes right away instead of waiting for the whole range to be searched
+ * 
+ * The job is Checkpointable: its progress is the next number to test and
+ * the count so far, so a job resent after a ComputeServer fails carries on
+ * from there instead of searching the range again
+ *
+ * @author Matt Au
+ */
+public class PrimeRangeJob extends StreamingJob implements Checkpointable {
+    
+    // Hidden data members
+    private BigInteger lower;
+    private BigInteger upper;
+    private long primeCount = 0;
+    private BigInteger next = null;
+    
+    /**
+     * Constructor taking the bounds of the range
+     * 
+     * @param lower the first number to test, inclusive
+     * @param upper the last number to test, inclusive
+     */
+    public PrimeRangeJob(BigInteger lower, BigInteger upper) {
+        
+        this.lower = lower;
+        this.upper = upper;
+    }
+    
+    /**
+     * This is the job computation
+     * Every number in the range is tested with the BigInteger isProbablePrime
+     * function and each prime found is emitted, starting from a restored
+     * checkpoint if there is one
+     */
+    public void computeJob() {
+        
+        if(next == null) {
+            
+            next = lower;
+            primeCount = 0;
+        }
+        
+        for( ; next.compareTo(upper) <= 0; next = next.add(BigInteger.ONE)) {
+            
+            //Cancelled, stop searching
+            if(Thread.currentThread().isInterrupted()) {
+                
+                return;
+            }
+            
+            checkpoint();
+            if(next.isProbablePrime(64)) {
+                
+                primeCount++;
+                emit(next);
+            }
+        }
+    }
+    
+    /**
+     * Captures the progress of the search
+     * 
+     * @return the next number to test and the number of primes found so far
+     */
+    @Override
+    public Serializable saveCheckpoint() {
+        
+        return new BigInteger[] { next, BigInteger.valueOf(primeCount) };
+    }
+    
+    /**
+     * Puts the search back where a checkpoint left it
+     * 
+     * @param state the next number to test and the number of primes found
+     */
+    @Override
+    public void restoreCheckpoint(Serializable state) {
+        
+        BigInteger[] progress = (BigInteger[]) state;
+        next = progress[0];
+        primeCount = progress[1].longValue();
+    }
+    
+    /**
+     * Main function
+     * Sets up the parameters to enable proper job execution
+     * Ensures proper inputs for PrimeRangeJob
+     * Attempts to set up communication with registry server and job scheduler
+     * Prints each prime as it arrives, then the number of primes in the range
+     * 
+     * @param args Command line input should be: 
+     *             host port jobschedulername jobname BigInteger1 BigInteger2
+     *             followed by an optional checkpoint interval in milliseconds
+     * @throws RemoteException Thrown if there is a remote error
+     * @throws NotBoundException Thrown if job scheduler isn't bound
+     */
+    public static void main(String[] args) throws 
+            RemoteException, NotBoundException {        
+        
+        // Invalid argument length
+        if(args.length != 6 && args.length != 7) {
+            
+            throw new IllegalArgumentException("Proper execution: java "
+                    + "PrimeRangeJob <host> <port> <jsname> <jobname> <lo> "
+                    + "<hi> [<checkpointms>]");
+        }        
+        
+        String host = args[0];
+        int port;
+        
+        BigInteger lower;
+        BigInteger upper;
+        //Invalid port input
+        try {
+            port = Integer.parseInt (args[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("PrimeRangeJob: Invalid port "
+                    + "number: " + args[1]);
+        }
+        
+        //Invalid BigInteger input
+        try {
+            lower = new BigInteger(args[4]);
+            upper = new BigInteger(args[5]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("PrimeRangeJob: Invalid "
+                    + "integer(s) from input: " + args[4] + " " + args[5]);
+        }
+        
+        //Invalid checkpoint interval input
+        long checkpointInterval = 0;
+        if(args.length == 7) {
+            
+            try {
+                checkpointInterval = Long.parseLong(args[6]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("PrimeRangeJob: Invalid "
+                        + "checkpoint interval: " + args[6]);
+            }
+        }
+        
+        RegistryProxy proxyBot = null;
+        //Unreachable host
+        try {
+            proxyBot = new RegistryProxy(host, port);
+        } catch (RemoteException e) {
+            throw new RemoteException("Host unreachable or "
+                    + "invalid host name/port");
+        }
+        
+        JobSchedulerInterface jobSched;
+        
+        //Improper JobScheduler name
+        try {
+            jobSched = (JobSchedulerInterface) proxyBot.lookup(args[2]);            
+        } catch (NotBoundException e) {
+            throw new RemoteException ("PrimeRangeJob(): Unable to find job "
+                    + "scheduler " + args[2]);
+        }
+        
+        RemoteEventListener<JobResultEvent> listener = 
+                new RemoteEventListener<JobResultEvent>() {
+            
+            @Override
+            public void report(long l, JobResultEvent re) 
+                    throws RemoteException {
+                
+                for(int i = 0; i < re.results.length; i++) {
+                    
+                    System.out.println(re.results[i]);
+                }
+            }
+        };
+        UnicastRemoteObject.exportObject(listener, 0);
+        
+        PrimeRangeJob myJob = new PrimeRangeJob(lower, upper);
+        myJob.setType("PrimeRange");
+        myJob.setName(args[3]);
+        myJob.setResultListener(listener);
+        myJob.setCheckpointInterval(checkpointInterval);
+        myJob.setID(jobSched.newJobID());
+        
+        //Cancel the job if the client is stopped before it finishes
+        Thread cancelHook = cancelOnExit(jobSched, myJob.getID());
+        Runtime.getRuntime().addShutdownHook(cancelHook);
+        try {
+            myJob = (PrimeRangeJob) submit(proxyBot, args[2], myJob);
+        } finally {
+            UnicastRemoteObject.unexportObject(listener, true);
+        }
+        Runtime.getRuntime().removeShutdownHook(cancelHook);
+        
+        if(myJob.isCancelled()) {
+            
+            System.out.println("cancelled");
+            return;
+        }
+        System.out.println(myJob.primeCount + " primes");
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class ResultChannel moves the results of a StreamingJob from the
+ * ComputeServer to the JobScheduler
+ * 
+ * Results go into a bounded buffer and a forwarding thread sends them to the
+ * JobScheduler, which hands them to the client before returning.  Because
+ * each send waits for the client, a slow client fills the buffer and the job
+ * blocks in emit; a fast client gets every result as soon as it is produced.
+ * Whatever has piled up while a send was in progress goes out as one batch.
+ * A job carrying on from a checkpoint numbers its results from where the
+ * checkpoint left off, and a job saving a checkpoint first flushes the
+ * channel so the checkpoint never counts results the client does not have.
+ * 
+ * @author Matt Au
+ */
+public class ResultChannel {
+    
+    // Hidden data members
+    private static final Serializable END = new Serializable() { };
+    
+    private final JobSchedulerInterface jobSched;
+    private final long jobID;
+    private final ArrayBlockingQueue<Serializable> buffer;
+    private final Thread forwarder;
+    private volatile boolean broken = false;
+    private long sequence;
+    private long emitted;
+    
+    /**
+     * Constructor that starts the forwarding thread
+     * 
+     * @param jobSched the JobScheduler to forward results to
+     * @param jobID the unique id of the job the results belong to
+     * @param bufferSize maximum number of results held before emit blocks
+     * @param first sequence number of the first result, which is the number
+     *              of results emitted before the checkpoint the job carries
+     *              on from
+     */
+    public ResultChannel(JobSchedulerInterface jobSched, long jobID, 
+            int bufferSize, long first) {
+        
+        this.jobSched = jobSched;
+        this.jobID = jobID;
+        this.sequence = first;
+        this.emitted = first;
+        this.buffer = new ArrayBlockingQueue<Serializable>(bufferSize);
+        
+        forwarder = new Thread(new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                forward();
+            }
+        }, "ResultChannel-" + jobID);
+        forwarder.setDaemon(true);
+        forwarder.start();
+    }
+    
+    /**
+     * Adds a result to the buffer, waiting for space if it is full
+     * 
+     * Results are dropped once the JobScheduler or client can no longer be
+     * reached so that the job is never blocked forever
+     * 
+     * @param result the result to send
+     */
+    public void emit(Serializable result) {
+        
+        emitted++;
+        if(broken) {
+            
+            return;
+        }
+        
+        try {
+            buffer.put(result);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Waits for every result emitted so far to be delivered
+     * 
+     * Stops waiting if the channel breaks or the job is interrupted, so the
+     * results counted may then not all have been delivered
+     * 
+     * @return the number of results emitted, dropped ones included,
+     *         starting from the sequence number of the first result
+     */
+    public synchronized long flush() {
+        
+        try {
+            while(!broken && sequence < emitted) {
+                
+                wait(100);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return emitted;
+    }
+    
+    /**
+     * Waits for every buffered result to be delivered and stops the
+     * forwarding thread
+     * 
+     * If the job was interrupted, results not yet delivered are dropped
+     * instead of waited for
+     */
+    public void close() {
+        
+        if( Thread.currentThread().isInterrupted() ) {
+            
+            broken = true;
+            buffer.clear();
+            forwarder.interrupt();
+            return;
+        }
+        
+        try {
+            //Forwarder stops by itself if the JobScheduler has gone away
+            while(!broken) {
+                
+                if(buffer.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                    
+                    break;
+                }
+            }
+            forwarder.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Body of the forwarding thread
+     * Takes whatever results are buffered and sends them as a single event
+     * until the end marker is reached
+     */
+    private void forward() {
+        
+        ArrayList<Serializable> batch = new ArrayList<Serializable>();
+        boolean done = false;
+        
+        while(!done && !broken) {
+            try {
+                batch.add(buffer.take());
+            } catch (InterruptedException ex) {
+                return;
+            }
+            buffer.drainTo(batch);
+            
+            //End marker is always the last thing put in the buffer
+            if(batch.get(batch.size() - 1) == END) {
+                
+                batch.remove(batch.size() - 1);
+                done = true;
+            }
+            
+            if(batch.size() > 0 && !broken) {
+                
+                Serializable[] results = batch.toArray(
+                        new Serializable[batch.size()]);
+                try {
+                    jobSched.reportResult(
+                            new JobResultEvent(jobID, sequence, results));
+                } catch (RemoteException e) {
+                    broken = true; // Drop the rest, let the job finish
+                    buffer.clear();
+                }
+                synchronized(this) {
+                    
+                    sequence += results.length;
+                    notifyAll();
+                }
+            }
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import edu.rit.ds.RemoteEventListener;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+/**
+ * Class SchedulerSnapshot is the state a JobScheduler needs to carry on
+ * where another one left off
+ * 
+ * It holds the jobs that were running, serialized, and a copy of the
+ * records of the JobQueue arena, along with the known ComputeServers and the
+ * registered Logger listeners.  The JobScheduler has no other caches, so
+ * there is nothing else to save.
+ * 
+ * The queue records go at the start of the file.  They are written from the
+ * arena a chunk at a time and read back into a direct buffer, so a snapshot
+ * of a long queue makes no objects per job.  The running jobs are picked up
+ * under the queue lock once the last records are copied, so a job moving
+ * between the queue and a ComputeServer is always in one or the other.
+ * 
+ * Snapshots are written to a temporary file of their own that is then
+ * renamed over the last one, so a reader always finds a whole snapshot, and
+ * two JobSchedulers writing at once never share a temporary file.
+ *
+ * @author Matt Au
+ */
+public class SchedulerSnapshot implements Serializable {
+    
+    public final long time;
+    public final ArrayList<Long> jobIDs = new ArrayList<Long>();
+    public final ArrayList<byte[]> jobs = new ArrayList<byte[]>();
+    public final ArrayList<ServerRecord> servers;
+    public final ArrayList<RemoteEventListener<JobSchedulerEvent>> loggers;
+    
+    // Hidden data members
+    private transient ByteBuffer queue;
+    
+    /**
+     * Constructor taking the state saved along with the jobs
+     * 
+     * @param servers the known ComputeServers
+     * @param loggers the registered Logger listeners
+     */
+    public SchedulerSnapshot(ArrayList<ServerRecord> servers, 
+            ArrayList<RemoteEventListener<JobSchedulerEvent>> loggers) {
+        
+        this.time = System.currentTimeMillis();
+        this.servers = servers;
+        this.loggers = loggers;
+    }
+    
+    /**
+     * Accessor for queue, set on a snapshot that was read
+     * 
+     * @return the queue records, between position and limit, to pass to
+     *         JobQueue.offerOrphans
+     */
+    public ByteBuffer getQueue() {
+        
+        return queue;
+    }
+    
+    /**
+     * Writes the snapshot to a file, replacing it as a whole, with the
+     * queue and the jobs running once it is copied
+     * 
+     * @param file the snapshot file
+     * @param queue the queue to save
+     * @param chunk buffer the queue is copied through, kept between
+     *              snapshots
+     * @param running the jobs sent to ComputeServers, by id
+     * @throws IOException thrown if the file cannot be written
+     */
+    public void write(File file, JobQueue queue, ByteBuffer chunk, 
+            final LongMap<BaseJob> running) throws IOException {
+        
+        File temp = File.createTempFile(file.getName() + ".new", null, 
+                file.getAbsoluteFile().getParentFile());
+        try {
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                //Records first, their length goes in front once known
+                FileChannel channel = stream.getChannel();
+                channel.position(4);
+                final ArrayList<BaseJob> runningJobs = new ArrayList<BaseJob>();
+                long written = queue.writeTo(channel, chunk, new Runnable() {
+                    
+                    @Override
+                    public void run() {
+                        
+                        runningJobs.addAll(running.values());
+                    }
+                });
+                
+                if(written > Integer.MAX_VALUE) {
+                    
+                    throw new IOException("SchedulerSnapshot: Queue too "
+                            + "large to save");
+                }
+                ByteBuffer length = ByteBuffer.allocate(4);
+                length.putInt(0, (int) written);
+                while(length.hasRemaining()) {
+                    
+                    channel.write(length, length.position());
+                }
+                
+                for( BaseJob job : runningJobs ) {
+                    
+                    jobIDs.add(job.getID());
+                    jobs.add(JobQueue.serialize(job));
+                }
+                
+                ObjectOutputStream out = new ObjectOutputStream(
+                        new BufferedOutputStream(stream));
+                out.writeObject(this);
+                out.flush();
+            } finally {
+                stream.close();
+            }
+            Files.move(temp.toPath(), file.toPath(), 
+                    StandardCopyOption.REPLACE_EXISTING, 
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete(); // Already gone unless the write or move failed
+        }
+    }
+    
+    /**
+     * Reads the snapshot in a file
+     * 
+     * @param file the snapshot file
+     * @return the snapshot, or null if there is no file
+     * @throws IOException thrown if the file cannot be read
+     */
+    public static SchedulerSnapshot read(File file) throws IOException {
+        
+        if(!file.exists()) {
+            
+            return null;
+        }
+        
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(channel, length);
+            ByteBuffer queue = ByteBuffer.allocateDirect(length.getInt(0));
+            readFully(channel, queue);
+            queue.flip();
+            
+            ObjectInputStream in = new ObjectInputStream(
+                    new BufferedInputStream(stream));
+            SchedulerSnapshot snapshot = (SchedulerSnapshot) in.readObject();
+            snapshot.queue = queue;
+            return snapshot;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("SchedulerSnapshot: Unreadable snapshot "
+                    + file, e);
+        } finally {
+            stream.close();
+        }
+    }
+    
+    /**
+     * Fills a buffer from a file
+     * 
+     * @param channel the file to read
+     * @param buffer the buffer to fill
+     * @throws IOException thrown if the file ends first or cannot be read
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer) 
+            throws IOException {
+        
+        while(buffer.hasRemaining()) {
+            
+            if(channel.read(buffer) < 0) {
+                
+                throw new EOFException("SchedulerSnapshot: Snapshot cut "
+                        + "short");
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.Serializable;
+
+/**
+ * Class ServerRecord is what the JobScheduler knows about a registered
+ * ComputeServer
+ * 
+ * It holds the remote reference, the pools the server runs jobs on, and
+ * whether the server is draining.  A draining server finishes the jobs it
+ * has but is given no new ones.  Records are saved in scheduler snapshots.
+ * 
+ * Each pool has as many slots as it holds jobs, running and waiting.  The
+ * JobScheduler reserves a slot before it sends a job, or a batch, which
+ * takes a single pool thread, and releases it when the call returns, so it
+ * never sends a server more than its pools can take and never has to ask a
+ * server how busy it is.  A pool the server turns a job away from anyway,
+ * for instance because it is still busy with jobs from an earlier
+ * JobScheduler, counts as full until one of its slots is released or for
+ * FULL_WAIT milliseconds if none is in use.
+ * Reservations are not saved in snapshots.
+ * 
+ * @author Matt Au
+ */
+public class ServerRecord implements Serializable {
+    
+    // Hidden data members
+    private static final long FULL_WAIT = 1000;
+    
+    private final ComputeServerInterface server;
+    private final String[] types;
+    private final int[] slots;
+    private final int capacity;
+    private volatile boolean draining = false;
+    private transient int[] used;
+    private transient long[] fullUntil;
+    private transient int inFlight;
+    
+    /**
+     * Constructor taking the server and its pools
+     * 
+     * @param server a reference to the ComputeServer
+     * @param pools the comma separated pool specs of the server, each of the
+     *              form type:threads:queue[:cpus]
+     */
+    public ServerRecord(ComputeServerInterface server, String pools) {
+        
+        String[] specs = pools.split(",");
+        this.server = server;
+        this.types = new String[specs.length];
+        this.slots = new int[specs.length];
+        
+        int total = 0;
+        for(int i = 0; i < specs.length; i++) {
+            
+            String[] parts = specs[i].split(":");
+            
+            //Invalid spec
+            try {
+                types[i] = parts[0];
+                slots[i] = Integer.parseInt(parts[1])
+                        + Integer.parseInt(parts[2]);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("ServerRecord: Invalid "
+                        + "pool spec " + specs[i]);
+            }
+            total += slots[i];
+        }
+        this.capacity = total;
+    }
+    
+    /**
+     * Accessor for server
+     * 
+     * @return the reference to the ComputeServer
+     */
+    public ComputeServerInterface getServer() {
+        
+        return server;
+    }
+    
+    /**
+     * Accessor for capacity
+     * 
+     * @return the number of jobs the server can hold at once, running and
+     *         waiting, over all its pools
+     */
+    public int getCapacity() {
+        
+        return capacity;
+    }
+    
+    /**
+     * Accessor for the number of reserved slots
+     * 
+     * @return the number of calls the JobScheduler has in progress on the
+     *         server
+     */
+    public synchronized int getInFlight() {
+        
+        return inFlight;
+    }
+    
+    /**
+     * Determines whether a job of a type could be sent to the server now
+     * 
+     * @param type the job type
+     * @return true if the server is not draining and its pool for the type
+     *         has a free slot
+     */
+    public synchronized boolean hasRoom(String type) {
+        
+        int pool = poolOf(type);
+        return !draining && pool >= 0 && used[pool] < slots[pool]
+                && System.currentTimeMillis() >= fullUntil[pool];
+    }
+    
+    /**
+     * Takes a slot in the pool for a job type, if there is one free
+     * 
+     * @param type the job type
+     * @return true if a slot was taken, to be given back with release
+     */
+    public synchronized boolean reserve(String type) {
+        
+        if( !hasRoom(type) ) {
+            
+            return false;
+        }
+        used[poolOf(type)]++;
+        inFlight++;
+        return true;
+    }
+    
+    /**
+     * Gives back a slot taken with reserve
+     * 
+     * @param type the job type the slot was taken for
+     * @param rejected true if the server turned the job away, so its pool
+     *                 for the type is taken as full until another slot in it
+     *                 is given back, or for FULL_WAIT milliseconds
+     */
+    public synchronized void release(String type, boolean rejected) {
+        
+        int pool = poolOf(type);
+        used[pool]--;
+        inFlight--;
+        fullUntil[pool] = rejected ? 
+                System.currentTimeMillis() + FULL_WAIT : 0;
+    }
+    
+    /**
+     * Mutator for draining
+     * 
+     * @param draining true once the server should get no new jobs
+     */
+    public void setDraining(boolean draining) {
+        
+        this.draining = draining;
+    }
+    
+    /**
+     * Accessor for draining
+     * 
+     * @return true if the server should get no new jobs
+     */
+    public boolean isDraining() {
+        
+        return draining;
+    }
+    
+    /**
+     * Finds the pool that runs a job type the same way the ComputeServer
+     * does, setting up the reservations of a new or restored record
+     * 
+     * @param type the job type
+     * @return index of the pool for the type, of the * pool, or -1 if there
+     *         is neither
+     */
+    private int poolOf(String type) {
+        
+        if( used == null ) {
+            
+            used = new int[slots.length];
+            fullUntil = new long[slots.length];
+        }
+        
+        int any = -1;
+        for(int i = 0; i < types.length; i++) {
+            
+            if( types[i].equals(type) ) {
+                
+                return i;
+            }
+            if( types[i].equals("*") ) {
+                
+                any = i;
+            }
+        }
+        return any;
+    }
+}
@@ -0,0 +1,114 @@
+import edu.rit.ds.RemoteEventListener;
+import java.io.Serializable;
+
+/**
+ * Abstract class StreamingJob is a base for jobs that produce many results
+ * It lets a job emit results while it is still running instead of returning
+ * them all at once inside the finished job object
+ * 
+ * Results are sent to a client side RemoteEventListener by way of the
+ * JobScheduler.  The ComputeServer buffers at most bufferSize results for a
+ * job; once the buffer is full emit blocks until the client has taken some,
+ * so memory on the server stays bounded no matter how many results a job
+ * produces.
+ * 
+ * @author Matt Au
+ */
+public abstract class StreamingJob extends BaseJob {
+    
+    // Hidden data members
+    private RemoteEventListener<JobResultEvent> resultListener = null;
+    private int bufferSize = 256;
+    private transient ResultChannel channel = null;
+    
+    /**
+     * Empty constructor
+     */
+    public StreamingJob() { }
+    
+    /**
+     * Mutator for the listener that receives the results of this job
+     * 
+     * @param resultListener an exported RemoteEventListener on the client
+     */
+    public void setResultListener(
+            RemoteEventListener<JobResultEvent> resultListener) {
+        
+        this.resultListener = resultListener;
+    }
+    
+    /**
+     * Accessor for the result listener
+     * 
+     * @return the listener that receives the results of this job, or null
+     */
+    public RemoteEventListener<JobResultEvent> getResultListener() {
+        
+        return resultListener;
+    }
+    
+    /**
+     * Mutator for the number of results the ComputeServer may buffer before
+     * emit blocks
+     * 
+     * @param bufferSize maximum number of buffered results, at least 1
+     */
+    public void setBufferSize(int bufferSize) {
+        
+        if(bufferSize < 1) {
+            
+            throw new IllegalArgumentException("StreamingJob: Invalid buffer "
+                    + "size: " + bufferSize);
+        }
+        
+        this.bufferSize = bufferSize;
+    }
+    
+    /**
+     * Accessor for buffer size
+     * 
+     * @return the maximum number of buffered results
+     */
+    public int getBufferSize() {
+        
+        return bufferSize;
+    }
+    
+    /**
+     * Mutator for the channel results are emitted to, set by the ComputeServer
+     * before the job is run
+     * 
+     * @param channel the ResultChannel for this run of the job
+     */
+    void setChannel(ResultChannel channel) {
+        
+        this.channel = channel;
+    }
+    
+    /**
+     * Waits for the results emitted so far in this run to be delivered
+     * 
+     * @return the number of results emitted, counting those emitted before
+     *         the checkpoint the run carries on from
+     */
+    @Override
+    long flushResults() {
+        
+        return channel != null ? channel.flush() : 0;
+    }
+    
+    /**
+     * Emits a single result, blocking while the result buffer is full
+     * 
+     * If the job is not running on a ComputeServer the result is dropped
+     * 
+     * @param result the result to send to the client
+     */
+    protected void emit(Serializable result) {
+        
+        if(channel != null) {
+            
+            channel.emit(result);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Class SyntheticJob is a job that extends BaseJob
+ * This class does no real work; it takes a set number of milliseconds to
+ * compute, so a LoadGenerator can choose the service time of a ComputeServer
+ * instead of being tied to the 10 second sleep of GcdJob and PrimalityJob
+ * 
+ * @author Matt Au
+ */
+public class SyntheticJob extends BaseJob {
+    
+    // Hidden data members
+    private long computeMillis;
+    
+    /**
+     * Constructor taking the compute time
+     * 
+     * @param computeMillis how long the job takes to compute, in milliseconds
+     */
+    public SyntheticJob(long computeMillis) {
+        
+        this.computeMillis = computeMillis;
+    }
+    
+    /**
+     * Accessor for computeMillis
+     * 
+     * @return how long the job takes to compute, in milliseconds
+     */
+    public long getComputeMillis() {
+        
+        return computeMillis;
+    }
+    
+    /**
+     * This is the job computation
+     * It sleeps for the compute time and returns at once if it is 0
+     */
+    public void computeJob() {
+        
+        if(computeMillis <= 0) {
+            
+            return;
+        }
+        
+        try {
+            Thread.sleep(computeMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt(); // Cancelled, no result
+        }
+    }
+    
+    /**
+     * Writes the job for the compact encoding of JobQueue
+     * 
+     * @param out where the job is written
+     * @throws IOException thrown if the job cannot be written
+     */
+    @Override
+    void writeCompact(DataOutput out) throws IOException {
+        
+        super.writeCompact(out);
+        out.writeLong(computeMillis);
+    }
+    
+    /**
+     * Reads the job written by writeCompact
+     * 
+     * @param in where the job is read from
+     * @throws IOException thrown if the job cannot be read
+     */
+    @Override
+    void readCompact(DataInput in) throws IOException {
+        
+        super.readCompact(in);
+        computeMillis = in.readLong();
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.Serializable;
+
+/**
+ * Class TraceContext records when a job passes each stage on its way
+ * through the JobScheduler and a ComputeServer
+ * 
+ * Times are nanoseconds since the epoch, taken from System.nanoTime against
+ * a wall clock reading made when the class is loaded, so stamps from the
+ * JobScheduler and from a ComputeServer can be put on one timeline as long
+ * as their clocks agree.  The context travels with its job, and a stamp of
+ * 0 means the job has not reached that stage.
+ * 
+ * Stages are ENQUEUE, when the job is first queued, HEAD, when it becomes
+ * the head of its type and a server is looked for, DEQUEUE, when it leaves
+ * the queue, DISPATCH, when it is sent, SERVER_START and SERVER_END around
+ * its computation on the server, and RETURN, when it is back at the
+ * JobScheduler.  A job resent after a failure keeps its ENQUEUE stamp and
+ * counts a retry.
+ * 
+ * @author Matt Au
+ */
+public class TraceContext implements Serializable {
+    
+    public static final int ENQUEUE = 0;
+    public static final int HEAD = 1;
+    public static final int DEQUEUE = 2;
+    public static final int DISPATCH = 3;
+    public static final int SERVER_START = 4;
+    public static final int SERVER_END = 5;
+    public static final int RETURN = 6;
+    
+    // Hidden data members
+    private static final long OFFSET =
+            System.currentTimeMillis() * 1000000L - System.nanoTime();
+    
+    private long[] stamps = new long[RETURN + 1];
+    private int retries = 0;
+    
+    /**
+     * Reads the trace clock
+     * 
+     * @return nanoseconds since the epoch
+     */
+    public static long now() {
+        
+        return System.nanoTime() + OFFSET;
+    }
+    
+    /**
+     * Stamps a stage with the current time
+     * 
+     * @param stage the stage reached
+     */
+    public void mark(int stage) {
+        
+        stamps[stage] = now();
+    }
+    
+    /**
+     * Stamps a stage with a time read earlier
+     * 
+     * @param stage the stage reached
+     * @param time nanoseconds since the epoch, from now
+     */
+    public void mark(int stage, long time) {
+        
+        stamps[stage] = time;
+    }
+    
+    /**
+     * Accessor for a stage stamp
+     * 
+     * @param stage the stage
+     * @return nanoseconds since the epoch the stage was reached at, or 0 if
+     *         it has not been reached
+     */
+    public long get(int stage) {
+        
+        return stamps[stage];
+    }
+    
+    /**
+     * Counts a resend of the job after a failure
+     */
+    public void retry() {
+        
+        retries++;
+    }
+    
+    /**
+     * Accessor for retries
+     * 
+     * @return the number of times the job was resent after a failure
+     */
+    public int getRetries() {
+        
+        return retries;
+    }
+}
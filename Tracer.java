@@ -0,0 +1,232 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Class Tracer picks the jobs the JobScheduler traces and writes their
+ * traces to a file in the Chrome trace event format, which chrome://tracing
+ * and Perfetto can open
+ * 
+ * One job in every rate is traced.  Finished traces go into a bounded
+ * buffer and a writer thread formats and writes them, so dispatch never
+ * waits for the disk; if the writer falls behind, traces are dropped rather
+ * than slowing jobs down.
+ * 
+ * Each traced job becomes a row of its own with a span for every stage it
+ * went through: queued, getServer, dispatch, call, and compute on the
+ * server.  The file is a JSON array that is left open, as the format
+ * allows, so it can be read while the JobScheduler runs.
+ * 
+ * @author Matt Au
+ */
+public class Tracer {
+    
+    // Hidden data members
+    private static final int BUFFER = 4096;
+    private static final String[] SPANS =
+            { "queued", "getServer", "dispatch", "call", "compute" };
+    private static final int[] STARTS = { TraceContext.ENQUEUE,
+            TraceContext.HEAD, TraceContext.DEQUEUE, TraceContext.DISPATCH,
+            TraceContext.SERVER_START };
+    private static final int[] ENDS = { TraceContext.HEAD,
+            TraceContext.DEQUEUE, TraceContext.DISPATCH, TraceContext.RETURN,
+            TraceContext.SERVER_END };
+    
+    private final int rate;
+    private final Writer out;
+    private final ArrayBlockingQueue<Entry> buffer =
+            new ArrayBlockingQueue<Entry>(BUFFER);
+    private long count = 0;
+    private long rows = 0;
+    private boolean empty = true;
+    
+    /**
+     * Constructor that opens the trace file and starts the writer thread
+     * 
+     * @param file the file to write traces to, replaced if it exists
+     * @param rate trace one job in this many
+     * @throws IOException thrown if the file cannot be opened
+     */
+    public Tracer(File file, int rate) throws IOException {
+        
+        if(rate < 1) {
+            
+            throw new IllegalArgumentException("Tracer: Invalid sampling "
+                    + "rate: " + rate);
+        }
+        
+        this.rate = rate;
+        this.out = new BufferedWriter(new FileWriter(file));
+        out.write("[");
+        
+        Thread writer = new Thread(new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                write();
+            }
+        }, "Tracer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Decides whether a new job is traced
+     * 
+     * @return true for one call in every rate
+     */
+    public synchronized boolean sample() {
+        
+        return ++count % rate == 0;
+    }
+    
+    /**
+     * Hands the trace of a finished job to the writer thread
+     * 
+     * @param job the job, does nothing if it carries no trace
+     * @param server the name of the server that ran it, or null if none did
+     */
+    public void export(BaseJob job, String server) {
+        
+        if(job.getTrace() != null) {
+            
+            buffer.offer(new Entry(job, server)); // Dropped if full
+        }
+    }
+    
+    /**
+     * Writes traces as they arrive, flushing whenever it catches up
+     */
+    private void write() {
+        
+        while(true) {
+            
+            try {
+                Entry entry = buffer.take();
+                writeEntry(entry);
+                if(buffer.isEmpty()) {
+                    
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                return; // Trace file unusable, traces are dropped from now
+            }
+        }
+    }
+    
+    /**
+     * Writes the spans of one job
+     * 
+     * @param entry the job and the server it ran on
+     * @throws IOException thrown if the file cannot be written
+     */
+    private void writeEntry(Entry entry) throws IOException {
+        
+        TraceContext trace = entry.job.getTrace();
+        rows++;
+        
+        for(int i = 0; i < SPANS.length; i++) {
+            
+            //A dropped job ends where it was waiting, queue or server
+            long start = trace.get(STARTS[i]);
+            long end = trace.get(ENDS[i]);
+            if(i < 2 && end == 0) {
+                
+                end = trace.get(TraceContext.RETURN);
+            }
+            if(start == 0 || end < start) {
+                
+                continue;
+            }
+            
+            out.write(empty ? "\n" : ",\n");
+            empty = false;
+            out.write("{\"name\":\"" + SPANS[i] + "\",\"cat\":\""
+                    + escape(entry.job.getType()) + "\",\"ph\":\"X\","
+                    + "\"pid\":1,\"tid\":" + rows
+                    + ",\"ts\":" + micros(start)
+                    + ",\"dur\":" + micros(end - start));
+            if(i == 0) {
+                
+                out.write(",\"args\":{\"id\":\"" + entry.job.getID()
+                        + "\",\"job\":\"" + escape(entry.job.getName())
+                        + "\",\"server\":\"" + escape(entry.server)
+                        + "\",\"retries\":" + trace.getRetries()
+                        + ",\"cancelled\":" + entry.job.isCancelled() + "}");
+            }
+            out.write("}");
+        }
+    }
+    
+    /**
+     * Formats nanoseconds as microseconds, which the format uses
+     * 
+     * @param nanos nanoseconds
+     * @return the same time in microseconds with three decimals
+     */
+    private static String micros(long nanos) {
+        
+        String fraction = Long.toString(1000 + nanos % 1000).substring(1);
+        return nanos / 1000 + "." + fraction;
+    }
+    
+    /**
+     * Escapes a string for a JSON string literal
+     * 
+     * @param text the string, may be null
+     * @return the escaped string, empty for null
+     */
+    private static String escape(String text) {
+        
+        if(text == null) {
+            
+            return "";
+        }
+        
+        StringBuilder escaped = new StringBuilder(text.length());
+        for(int i = 0; i < text.length(); i++) {
+            
+            char c = text.charAt(i);
+            if(c == '"' || c == '\\') {
+                
+                escaped.append('\\').append(c);
+            }
+            else if(c < ' ') {
+                
+                escaped.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+    
+    /**
+     * Class Entry is a finished job waiting to be written
+     */
+    private static class Entry {
+        
+        final BaseJob job;
+        final String server;
+        
+        /**
+         * Constructor taking the job and where it ran
+         * 
+         * @param job the finished job
+         * @param server the name of the server that ran it, or null
+         */
+        Entry(BaseJob job, String server) {
+            
+            this.job = job;
+            this.server = server;
+        }
+    }
+}